@@ -0,0 +1,44 @@
+package neo4j.load.twitter;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the {@link GeneratorBenchmark} with the allocation profiler for each of the given thread counts,
+ * results go to <code>target/benchmark-threads-N.json</code>.
+ * <p>
+ * Usage: <code>BenchmarkRunner [1,4,16,64 [benchmark-regexp]]</code> or <code>BenchmarkRunner smoke</code> for one
+ * short iteration of <code>selectAndRun</code> with one thread, which fails if the benchmark fails.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        if (args.length > 0 && args[0].equals("smoke")) {
+            new Runner(new OptionsBuilder()
+                    .include(GeneratorBenchmark.class.getName() + ".selectAndRun")
+                    .threads(1)
+                    .warmupIterations(0)
+                    .measurementIterations(1)
+                    .measurementTime(TimeValue.seconds(1))
+                    .shouldFailOnError(true)
+                    .build()).run();
+            return;
+        }
+        String threads = args.length > 0 ? args[0] : "1,4,16,64";
+        String include = GeneratorBenchmark.class.getName() + (args.length > 1 ? "." + args[1] : "");
+        for (String count : threads.split(",")) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(count.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/benchmark-threads-" + count.trim() + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.SingleWriterRecorder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Client-side hot path of the load generator, against a {@link StubDriver}, so the generator's own overhead
+ * per operation is known and can be compared with the server's capacity.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+    static final int USERS = 1_000_000;
+    static final int MAX_THREADS = 64;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        Users users;
+        Workload workload;
+        Metrics metrics;
+        KeyChooser zipf;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            System.setProperty("live.output", "none");
+            System.setProperty("errors.timeline", "none");
+            users = new Users();
+            long[] bits = new long[USERS * 2];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < bits.length; i++) bits[i] = random.nextLong();
+            users.addAll(bits, USERS);
+            workload = Workload.defaults();
+            metrics = new Metrics(workload.names(), MAX_THREADS, null, TimeUnit.HOURS.toMillis(1));
+            zipf = KeyChooser.parse("zipf:0.99");
+        }
+
+        @TearDown
+        public void tearDown() {
+            metrics.stop(new PrintStream(new ByteArrayOutputStream()));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        OperationRunner runner;
+        SingleWriterRecorder recorder;
+        String name;
+        Collection<String> friends;
+
+        @Setup
+        public void setup(Shared shared) {
+            int thread = shared.threads.getAndIncrement() % MAX_THREADS;
+            runner = new OperationRunner(shared.workload, shared.users, new StubDriver(), shared.metrics, thread);
+            recorder = shared.metrics.forThread(thread)[0];
+            name = shared.users.name(shared.users.randomUser());
+            friends = shared.users.randomUsers(10);
+        }
+    }
+
+    /**
+     * Selecting an operation, its user and parameters, running it against the stub and recording it.
+     */
+    @Benchmark
+    public Operation selectAndRun(PerThread state) {
+        return state.runner.next(0);
+    }
+
+    @Benchmark
+    public int selectOperation(Shared shared) {
+        return shared.workload.next(ThreadLocalRandom.current());
+    }
+
+    @Benchmark
+    public Collection<String> randomUsers(Shared shared) {
+        return shared.users.randomUsers(10);
+    }
+
+    @Benchmark
+    public int zipfianUser(Shared shared) {
+        return shared.users.randomUser(shared.zipf);
+    }
+
+    @Benchmark
+    public String userName(Shared shared) {
+        return shared.users.name(shared.users.randomUser());
+    }
+
+    @Benchmark
+    public Object parameterMap(PerThread state) {
+        return parameters("name", state.name, "friends", state.friends);
+    }
+
+    /**
+     * Only the row construction, with a pre-generated name and friends so the registry doesn't grow.
+     */
+    @Benchmark
+    public Map<String, Object> operationParameters(PerThread state) {
+        return LoadGenerator.Operations.CREATE_USER.row(state.name, state.friends);
+    }
+
+    @Benchmark
+    public String tweetText(PerThread state) {
+        return "A Tweet by " + state.name + " at " + new Date();
+    }
+
+    @Benchmark
+    public void recordLatency(PerThread state) {
+        state.recorder.recordValue(ThreadLocalRandom.current().nextLong(1_000, 100_000_000));
+    }
+}
@@ -0,0 +1,228 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.internal.summary.InternalSummaryCounters;
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Statement;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementRunner;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.exceptions.NoSuchRecordException;
+import org.neo4j.driver.v1.summary.*;
+import org.neo4j.driver.v1.types.TypeSystem;
+import org.neo4j.driver.v1.util.Function;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Driver whose sessions and transactions return empty results without any I/O,
+ * to measure the client-side cost of the load generator.
+ */
+class StubDriver implements Driver {
+
+    @Override
+    public boolean isEncrypted() {
+        return false;
+    }
+
+    @Override
+    public Session session() {
+        return new StubSession();
+    }
+
+    @Override
+    public Session session(AccessMode mode) {
+        return new StubSession();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static class StubRunner implements StatementRunner {
+        @Override
+        public StatementResult run(String statement, Value parameters) {
+            return StubResult.EMPTY;
+        }
+
+        @Override
+        public StatementResult run(String statement, Map<String, Object> parameters) {
+            return StubResult.EMPTY;
+        }
+
+        @Override
+        public StatementResult run(String statement, Record parameters) {
+            return StubResult.EMPTY;
+        }
+
+        @Override
+        public StatementResult run(String statement) {
+            return StubResult.EMPTY;
+        }
+
+        @Override
+        public StatementResult run(Statement statement) {
+            return StubResult.EMPTY;
+        }
+
+        @Override
+        public TypeSystem typeSystem() {
+            return null;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class StubSession extends StubRunner implements Session {
+        private final Transaction transaction = new StubTransaction();
+
+        @Override
+        public Transaction beginTransaction() {
+            return transaction;
+        }
+
+        @Override
+        public Transaction beginTransaction(String bookmark) {
+            return transaction;
+        }
+
+        @Override
+        public String lastBookmark() {
+            return null;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    private static class StubTransaction extends StubRunner implements Transaction {
+        @Override
+        public void success() {
+        }
+
+        @Override
+        public void failure() {
+        }
+    }
+
+    private static class StubResult implements StatementResult {
+        static final StatementResult EMPTY = new StubResult();
+
+        @Override
+        public List<String> keys() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public Record next() {
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public Record single() throws NoSuchRecordException {
+            throw new NoSuchRecordException("Stub results are empty");
+        }
+
+        @Override
+        public Record peek() {
+            throw new NoSuchRecordException("Stub results are empty");
+        }
+
+        @Override
+        public List<Record> list() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public <T> List<T> list(Function<Record, T> mapFunction) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public ResultSummary consume() {
+            return StubSummary.EMPTY;
+        }
+
+        @Override
+        public ResultSummary summary() {
+            return StubSummary.EMPTY;
+        }
+    }
+
+    private static class StubSummary implements ResultSummary {
+        static final ResultSummary EMPTY = new StubSummary();
+
+        @Override
+        public Statement statement() {
+            return null;
+        }
+
+        @Override
+        public SummaryCounters counters() {
+            return InternalSummaryCounters.EMPTY_STATS;
+        }
+
+        @Override
+        public StatementType statementType() {
+            return StatementType.READ_WRITE;
+        }
+
+        @Override
+        public boolean hasPlan() {
+            return false;
+        }
+
+        @Override
+        public boolean hasProfile() {
+            return false;
+        }
+
+        @Override
+        public Plan plan() {
+            return null;
+        }
+
+        @Override
+        public ProfiledPlan profile() {
+            return null;
+        }
+
+        @Override
+        public List<Notification> notifications() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long resultAvailableAfter(TimeUnit unit) {
+            return 0;
+        }
+
+        @Override
+        public long resultConsumedAfter(TimeUnit unit) {
+            return 0;
+        }
+
+        @Override
+        public ServerInfo server() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package neo4j.load.twitter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Walker/Vose alias table for constant-time sampling of an index from a discrete distribution,
+ * independent of the number of entries.
+ */
+class AliasTable {
+    private final double[] probability;
+    private final int[] alias;
+
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0) throw new IllegalArgumentException("Negative weight " + weight);
+            total += weight;
+        }
+        if (total <= 0) throw new IllegalArgumentException("At least one weight must be positive");
+        probability = new double[n];
+        alias = new int[n];
+        double[] scaled = new double[n];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            (scaled[i] < 1 ? small : large).add(i);
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.pop();
+            int more = large.pop();
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            (scaled[more] < 1 ? small : large).add(more);
+        }
+        // left-overs are 1 up to rounding errors
+        while (!large.isEmpty()) probability[large.pop()] = 1;
+        while (!small.isEmpty()) probability[small.pop()] = 1;
+    }
+
+    int next(ThreadLocalRandom random) {
+        int column = random.nextInt(probability.length);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+}
@@ -0,0 +1,197 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps the offered load (target rate or number of threads) up until a latency or error-rate SLO is violated.
+ * Each step runs for a warmup period, after which its latencies are measured separately for the step duration.
+ * The resulting throughput-vs-latency curve is written as CSV, together with the capacity (highest throughput
+ * within the SLO) and the knee of the curve.
+ */
+class CapacitySearch {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    interface Load {
+        /**
+         * Sets the offered load of the next step, a target rate or a number of threads.
+         */
+        void level(int level);
+    }
+
+    /**
+     * Measures the steps, the metrics of this process or of all workers of a coordinator.
+     */
+    interface Phases {
+        void startPhase();
+
+        /**
+         * @return latencies of the successful operations since the phase started
+         */
+        Histogram phaseLatencies();
+
+        /**
+         * @return number of failed operations since the phase started
+         */
+        long phaseErrors();
+    }
+
+    static class Step {
+        final int level;
+        final double throughput;
+        final double p50, p99, p999, max;
+        final long errors;
+        final double errorRate;
+
+        Step(int level, double throughput, Histogram latencies, long errors) {
+            this.level = level;
+            this.throughput = throughput;
+            this.p50 = latencies.getValueAtPercentile(50) / MILLIS;
+            this.p99 = latencies.getValueAtPercentile(99) / MILLIS;
+            this.p999 = latencies.getValueAtPercentile(99.9) / MILLIS;
+            this.max = latencies.getMaxValue() / MILLIS;
+            this.errors = errors;
+            // the latencies are of the successful operations
+            long executions = latencies.getTotalCount() + errors;
+            this.errorRate = executions == 0 ? 0 : 100.0 * errors / executions;
+        }
+    }
+
+    final String dimension;
+    final int start;
+    final int increment;
+    final int max;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final double maxP99;
+    private final double maxP999;
+    private final double maxErrorRate;
+    private final String output;
+    private final List<Step> steps = new ArrayList<>();
+
+    CapacitySearch(String dimension, int start, int increment, int max, long warmupMillis, long durationMillis,
+                   double maxP99, double maxP999, double maxErrorRate, String output) {
+        this.dimension = dimension;
+        this.start = start;
+        this.increment = increment;
+        this.max = max;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+        this.maxP99 = maxP99;
+        this.maxP999 = maxP999;
+        this.maxErrorRate = maxErrorRate;
+        this.output = output;
+    }
+
+    static CapacitySearch fromSettings() {
+        String dimension = Settings.get("search", null);
+        if (dimension == null) return null;
+        if (!dimension.equals("rate") && !dimension.equals("concurrency")) {
+            throw new IllegalArgumentException("Capacity search over rate or concurrency, not " + dimension);
+        }
+        int start = Settings.getInt("search.start", dimension.equals("rate") ? 100 : 1);
+        return new CapacitySearch(dimension, start,
+                Settings.getInt("search.step", start),
+                Settings.getInt("search.max", dimension.equals("rate") ? Integer.MAX_VALUE : 256),
+                TimeUnit.SECONDS.toMillis(Settings.getInt("search.warmup", 10)),
+                TimeUnit.SECONDS.toMillis(Settings.getInt("search.duration", 60)),
+                Settings.getDouble("search.p99", 100),
+                Settings.getDouble("search.p999", 0),
+                Settings.getDouble("search.errors", 1),
+                Settings.get("search.output", "capacity.csv"));
+    }
+
+    boolean byRate() {
+        return dimension.equals("rate");
+    }
+
+    void run(Load load, Phases metrics) throws InterruptedException {
+        for (int level = start; level <= max; level += increment) {
+            load.level(level);
+            Thread.sleep(warmupMillis);
+            metrics.startPhase();
+            long begin = System.nanoTime();
+            Thread.sleep(durationMillis);
+            Histogram latencies = metrics.phaseLatencies();
+            long errors = metrics.phaseErrors();
+            double seconds = (System.nanoTime() - begin) / (double) TimeUnit.SECONDS.toNanos(1);
+            if (!add(new Step(level, latencies.getTotalCount() / seconds, latencies, errors), System.out)) break;
+        }
+        report(System.out);
+        write();
+    }
+
+    /**
+     * Adds a measured step to the curve.
+     * @return if the step met the SLO, so the search goes on
+     */
+    boolean add(Step step, PrintStream out) {
+        steps.add(step);
+        out.printf("Capacity search %s %d: %.1f ops/s, p50 %.3f p99 %.3f p99.9 %.3f max %.3f ms, %.2f%% errors%n",
+                dimension, step.level, step.throughput, step.p50, step.p99, step.p999, step.max, step.errorRate);
+        if (!violated(step)) return true;
+        out.println("SLO violated at " + dimension + " " + step.level + ".");
+        return false;
+    }
+
+    private boolean violated(Step step) {
+        return step.p99 > maxP99 || (maxP999 > 0 && step.p999 > maxP999) || step.errorRate > maxErrorRate;
+    }
+
+    void report(PrintStream out) {
+        Step capacity = null;
+        for (Step step : steps) {
+            if (!violated(step) && (capacity == null || step.throughput > capacity.throughput)) capacity = step;
+        }
+        if (capacity == null) {
+            out.println("No step met the SLO (p99 <= " + maxP99 + " ms" + (maxP999 > 0 ? ", p99.9 <= " + maxP999 + " ms" : "") + ", errors <= " + maxErrorRate + "%).");
+        } else {
+            out.printf("Capacity: %.1f ops/s at %s %d with p99 %.3f ms.%n", capacity.throughput, dimension, capacity.level, capacity.p99);
+        }
+        Step knee = knee();
+        if (knee != null) {
+            out.printf("Knee: %.1f ops/s at %s %d with p99 %.3f ms.%n", knee.throughput, dimension, knee.level, knee.p99);
+        }
+    }
+
+    /**
+     * Point of the throughput/p99 curve farthest from the straight line between its first and last point,
+     * with both axes normalized (Kneedle).
+     */
+    Step knee() {
+        if (steps.size() < 3) return null;
+        Step first = steps.get(0);
+        Step last = steps.get(steps.size() - 1);
+        double dx = last.throughput - first.throughput;
+        double dy = last.p99 - first.p99;
+        if (dx == 0 || dy == 0) return null;
+        Step knee = null;
+        double maxDistance = 0;
+        for (Step step : steps) {
+            double x = (step.throughput - first.throughput) / dx;
+            double y = (step.p99 - first.p99) / dy;
+            double distance = x - y;
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                knee = step;
+            }
+        }
+        return knee;
+    }
+
+    private void write() {
+        try (PrintStream out = new PrintStream(output)) {
+            out.println(dimension + ",throughput,p50,p99,p999,max,errors,errorRate");
+            for (Step step : steps) {
+                out.printf("%d,%.1f,%.3f,%.3f,%.3f,%.3f,%d,%.3f%n", step.level, step.throughput, step.p50, step.p99, step.p999, step.max, step.errors, step.errorRate);
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("Error writing " + output + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the load from several worker processes, because a single JVM runs out of client CPU and sockets
+ * long before a cluster saturates. Enabled with <code>-Dcoordinator.workers=N</code>, the coordinator starts N workers
+ * on this machine (or, with <code>coordinator.spawn=false</code>, waits for N workers started with
+ * <code>-Dworker=host:port</code>) and talks to them with a line protocol on <code>coordinator.port</code> (default 9777):
+ * <pre>
+ * worker: HELLO                       coordinator: ASSIGN index count rate
+ * worker: READY                       (after initialization, worker 0 first as it creates the constraint and seeds)
+ * coordinator: START                  (to all workers at once)
+ * coordinator: LEVEL n                worker: OK             (share of a capacity search step)
+ * coordinator: PHASE                  worker: OK             (starts a phase)
+ * coordinator: LATENCIES              worker: LATENCIES errors base64-histogram
+ * coordinator: STOP                   worker: DONE histogram-log operation=errors:retries ...
+ * </pre>
+ * At the end the interval logs of the workers are merged into one interval log and one report.
+ */
+class Coordinator implements CapacitySearch.Phases {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    // settings with an output file that get a per-worker name when spawning workers
+    private static final String[] FILES = {"histogram.log=latency.hlog", "live.output=live.csv", "errors.timeline=errors.csv",
+            "search.output=capacity.csv", "shards.output=shards.csv", "snapshot=users.snapshot", "record="};
+
+    private final int workers;
+    private final int port;
+    private final boolean spawn;
+    private final long durationSeconds;
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private long phaseErrors;
+
+    private static class Connection {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+        }
+
+        String[] request(String command, String expected) throws IOException {
+            if (command != null) out.println(command);
+            String line = in.readLine();
+            if (line == null || !line.startsWith(expected)) {
+                throw new IOException("Expected " + expected + " from worker, got " + line);
+            }
+            return line.split(" ");
+        }
+    }
+
+    private Coordinator(int workers, int port, boolean spawn, long durationSeconds) {
+        this.workers = workers;
+        this.port = port;
+        this.spawn = spawn;
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * @return the coordinator configured by <code>coordinator.workers</code>, <code>coordinator.port</code>,
+     * <code>coordinator.spawn</code> and <code>coordinator.duration</code> (seconds, 0 runs until the workers are done), or null,
+     * always null in a worker, which may have inherited the coordinator settings from the environment
+     */
+    static Coordinator fromSettings() {
+        if (Settings.get("worker", null) != null) return null;
+        int workers = Settings.getInt("coordinator.workers", 0);
+        if (workers <= 0) return null;
+        return new Coordinator(workers, Settings.getInt("coordinator.port", 9777),
+                Settings.getBoolean("coordinator.spawn", true), Settings.getLong("coordinator.duration", 0));
+    }
+
+    /**
+     * @param args arguments of the load generator, the total number of operations is split between the workers
+     */
+    void run(String[] args) throws IOException, InterruptedException {
+        try {
+            coordinate(args);
+        } catch (IOException | RuntimeException e) {
+            // e.g. a worker that exited before it was ready, the others would wait for START forever
+            for (Process process : processes) process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    private void coordinate(String[] args) throws IOException, InterruptedException {
+        double rate = Workload.fromSettings().rate;
+        CapacitySearch search = CapacitySearch.fromSettings();
+        try (ServerSocket server = new ServerSocket(port, workers, InetAddress.getLoopbackAddress())) {
+            System.out.println("Coordinating " + workers + " workers on port " + port + ".");
+            server.setSoTimeout(1000);
+            for (int i = 0; i < workers; i++) {
+                if (spawn) processes.add(spawn(i, args));
+                Connection connection = new Connection(accept(server, i));
+                connection.request(null, "HELLO");
+                connections.add(connection);
+            }
+        }
+        // the first worker seeds, the others load the users after it, each with its own snapshot
+        for (int i = 0; i < workers; i++) {
+            connections.get(i).out.println("ASSIGN " + i + " " + workers + " " + rate / workers);
+            if (i == 0) connections.get(0).request(null, "READY");
+        }
+        for (int i = 1; i < workers; i++) connections.get(i).request(null, "READY");
+        long start = System.currentTimeMillis();
+        for (Connection connection : connections) connection.out.println("START");
+        System.out.println("Started " + workers + " workers.");
+        if (search != null) {
+            search.run(this::level, this);
+            stop();
+        } else if (durationSeconds > 0) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            stop();
+        }
+        List<String[]> done = new ArrayList<>();
+        for (Connection connection : connections) {
+            done.add(connection.request(null, "DONE"));
+            connection.socket.close();
+        }
+        for (Process process : processes) process.waitFor();
+        report(done, start, System.out);
+    }
+
+    /**
+     * Waits for the connection of the next worker, a spawned worker that exits before connecting fails the run.
+     */
+    private Socket accept(ServerSocket server, int index) throws IOException {
+        while (true) {
+            try {
+                return server.accept();
+            } catch (SocketTimeoutException e) {
+                if (spawn && !processes.get(index).isAlive()) {
+                    throw new IOException("Worker " + index + " exited before connecting, see worker-" + index + ".log");
+                }
+            }
+        }
+    }
+
+    private Process spawn(int index, String[] args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-Dcoordinator.") && !argument.startsWith("-Dlive.port=") && !isFile(argument)) command.add(argument);
+        }
+        // one HTTP endpoint per worker on the ports following live.port
+        int livePort = Settings.getInt("live.port", 0);
+        if (livePort > 0) command.add("-Dlive.port=" + (livePort + index));
+        for (String file : FILES) {
+            String[] setting = file.split("=", 2);
+            String value = Settings.get(setting[0], setting.length > 1 && !setting[1].isEmpty() ? setting[1] : null);
+            if (value != null && !value.equals("none")) command.add("-D" + setting[0] + "=" + perWorker(value, index));
+        }
+        command.add("-Dworker=localhost:" + port);
+        // overrides COORDINATOR_WORKERS inherited from the environment
+        command.add("-Dcoordinator.workers=0");
+        // only the first worker seeds the database
+        if (index > 0) command.add("-Dseed.users=0");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LoadGenerator.class.getName());
+        for (int i = 0; i < args.length; i++) {
+            command.add(i == 2 && Integer.parseInt(args[2]) > 0 ? String.valueOf(Integer.parseInt(args[2]) / workers) : args[i]);
+        }
+        File log = new File("worker-" + index + ".log");
+        System.out.println("Starting worker " + index + ", output in " + log + ".");
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+    }
+
+    private static boolean isFile(String argument) {
+        for (String file : FILES) {
+            if (argument.startsWith("-D" + file.split("=")[0] + "=")) return true;
+        }
+        return false;
+    }
+
+    private static String perWorker(String file, int index) {
+        int dot = file.lastIndexOf('.');
+        return dot <= 0 ? file + "-" + index : file.substring(0, dot) + "-" + index + file.substring(dot);
+    }
+
+    /**
+     * Splits the level of a capacity search step between the workers.
+     */
+    private void level(int level) {
+        try {
+            for (int i = 0; i < workers; i++) {
+                int share = level / workers + (i < level % workers ? 1 : 0);
+                connections.get(i).request("LEVEL " + share, "OK");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void stop() {
+        for (Connection connection : connections) connection.out.println("STOP");
+    }
+
+    @Override
+    public void startPhase() {
+        try {
+            for (Connection connection : connections) connection.out.println("PHASE");
+            for (Connection connection : connections) connection.request(null, "OK");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Also collects the errors of the phase, returned by the following {@link #phaseErrors()}.
+     */
+    @Override
+    public Histogram phaseLatencies() {
+        try {
+            Histogram merged = new Histogram(3);
+            long errors = 0;
+            for (Connection connection : connections) connection.out.println("LATENCIES");
+            for (Connection connection : connections) {
+                String[] reply = connection.request(null, "LATENCIES");
+                errors += Long.parseLong(reply[1]);
+                merged.add(Worker.decode(reply[2]));
+            }
+            phaseErrors = errors;
+            return merged;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long phaseErrors() {
+        return phaseErrors;
+    }
+
+    /**
+     * Merges the interval logs of the workers into one, with the intervals aligned to the coordinator's start,
+     * and prints the merged latencies per operation.
+     */
+    private void report(List<String[]> done, long start, PrintStream out) throws FileNotFoundException {
+        long intervalMillis = TimeUnit.SECONDS.toMillis(Settings.getInt("interval", 10));
+        Map<String, Histogram> totals = new TreeMap<>();
+        Map<String, long[]> failures = new TreeMap<>();
+        TreeMap<Long, Map<String, Histogram>> intervals = new TreeMap<>();
+        for (String[] worker : done) {
+            for (int i = 2; i < worker.length; i++) {
+                String[] counts = worker[i].substring(worker[i].indexOf('=') + 1).split(":");
+                long[] sum = failures.computeIfAbsent(worker[i].substring(0, worker[i].indexOf('=')), k -> new long[2]);
+                sum[0] += Long.parseLong(counts[0]);
+                sum[1] += Long.parseLong(counts[1]);
+            }
+            if (worker[1].equals("-")) continue;
+            HistogramLogReader reader = new HistogramLogReader(worker[1]);
+            EncodableHistogram interval;
+            while ((interval = reader.nextIntervalHistogram()) != null) {
+                Histogram histogram = (Histogram) interval;
+                String tag = histogram.getTag();
+                totals.computeIfAbsent(tag, k -> new Histogram(3)).add(histogram);
+                long bucket = Math.max(0, (histogram.getStartTimeStamp() - start) / intervalMillis);
+                intervals.computeIfAbsent(bucket, k -> new TreeMap<>()).computeIfAbsent(tag, k -> new Histogram(3)).add(histogram);
+            }
+        }
+        String merged = Settings.get("histogram.log", "latency.hlog");
+        try (PrintStream stream = new PrintStream(new FileOutputStream(merged), false)) {
+            HistogramLogWriter writer = new HistogramLogWriter(stream);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(start);
+            writer.setBaseTime(start);
+            writer.outputLegend();
+            for (Map.Entry<Long, Map<String, Histogram>> bucket : intervals.entrySet()) {
+                for (Map.Entry<String, Histogram> tagged : bucket.getValue().entrySet()) {
+                    Histogram histogram = tagged.getValue();
+                    histogram.setTag(tagged.getKey());
+                    histogram.setStartTimeStamp(start + bucket.getKey() * intervalMillis);
+                    histogram.setEndTimeStamp(start + (bucket.getKey() + 1) * intervalMillis);
+                    writer.outputIntervalHistogram(histogram);
+                }
+            }
+        }
+        out.println("Merged latencies of " + done.size() + " workers, interval log in " + merged + ":");
+        Metrics.header(out);
+        Histogram overall = new Histogram(3);
+        long errors = 0, retries = 0;
+        for (Map.Entry<String, long[]> operation : failures.entrySet()) {
+            Histogram histogram = totals.getOrDefault(operation.getKey(), new Histogram(3));
+            Metrics.print(out, operation.getKey(), histogram, operation.getValue()[0], operation.getValue()[1]);
+            overall.add(histogram);
+            errors += operation.getValue()[0];
+            retries += operation.getValue()[1];
+        }
+        Metrics.print(out, "ALL", overall, errors, retries);
+        out.println("Latency distribution of all successful operations in millis:");
+        overall.outputPercentileDistribution(out, 1, MILLIS);
+    }
+}
@@ -0,0 +1,167 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Operation defined in a workload file by its Cypher statement. The statement gets the name of the user
+ * as <code>{name}</code> and the values of its parameter generators:
+ * <ul>
+ * <li><code>user</code> name of another random user, from the key distribution of the operation</li>
+ * <li><code>users:10</code> list of up to 10 random user names, from the key distribution of the operation</li>
+ * <li><code>int:0:100</code> random int from the range [0,100)</li>
+ * <li><code>text</code> tweet text of the user</li>
+ * <li><code>timestamp</code> current time in millis</li>
+ * <li><code>const:value</code> the given string</li>
+ * </ul>
+ * Alternative statements (<code>X.variant.NAME</code> in the workload file) are its {@link #variants()}, next to
+ * the <code>default</code> statement. Executions are profiled with the sampling of {@link QueryProfile}.
+ */
+class CypherOperation implements Operation {
+
+    interface Generator {
+        Object generate(Users users, int user, KeyChooser keys);
+    }
+
+    private final String name;
+    private final String statement;
+    private final String batchStatement;
+    private final boolean writes;
+    private final boolean ryow;
+    private final boolean newUser;
+    private final Map<String, Generator> generators = new LinkedHashMap<>();
+    private final Map<String, String> variants = new LinkedHashMap<>();
+    private final QueryProfile profile;
+
+    /**
+     * @param batchStatement statement for a list of rows with the name and parameters as <code>{batch}</code>, or null
+     * @param variants alternative statements by variant name
+     */
+    CypherOperation(String name, String statement, String batchStatement, boolean writes, boolean ryow, boolean newUser,
+                    Map<String, String> parameters, Map<String, String> variants) {
+        this.name = name;
+        this.statement = statement;
+        this.batchStatement = batchStatement;
+        this.writes = writes;
+        this.ryow = ryow;
+        this.newUser = newUser;
+        this.profile = new QueryProfile(name);
+        parameters.forEach((key, spec) -> generators.put(key, generator(name, key, spec)));
+        if (!variants.isEmpty()) {
+            this.variants.put("default", statement);
+            this.variants.putAll(variants);
+        }
+    }
+
+    private CypherOperation(CypherOperation base, String variant, String statement) {
+        this(base.name + "/" + variant, statement, base.batchStatement, base.writes, base.ryow, base.newUser,
+                Collections.emptyMap(), Collections.emptyMap());
+        generators.putAll(base.generators);
+    }
+
+    static Generator generator(String operation, String key, String spec) {
+        String[] parts = spec.split(":", 3);
+        switch (parts[0]) {
+            case "user":
+                return (users, user, keys) -> users.name(users.randomUser(keys));
+            case "users":
+                int count = Integer.parseInt(parts[1]);
+                return (users, user, keys) -> users.randomUsers(count, keys);
+            case "int":
+                int min = Integer.parseInt(parts[1]);
+                int max = Integer.parseInt(parts[2]);
+                return (users, user, keys) -> ThreadLocalRandom.current().nextInt(min, max);
+            case "text":
+                return (users, user, keys) -> "A Tweet by " + users.name(user) + " at " + new Date();
+            case "timestamp":
+                return (users, user, keys) -> System.currentTimeMillis();
+            case "const":
+                String value = spec.substring("const:".length());
+                return (users, user, keys) -> value;
+            default:
+                throw new IllegalArgumentException("Unknown generator " + spec + " for parameter " + key + " of " + operation);
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public boolean writes() {
+        return writes;
+    }
+
+    @Override
+    public boolean ryow() {
+        return ryow;
+    }
+
+    @Override
+    public Map<String, String> variants() {
+        return variants;
+    }
+
+    @Override
+    public Operation variant(String variant, String statement) {
+        return new CypherOperation(this, variant, statement);
+    }
+
+    @Override
+    public QueryProfile profile() {
+        return profile;
+    }
+
+    @Override
+    public int user(Users users, KeyChooser keys) {
+        return newUser ? users.newUser() : users.randomUser(keys);
+    }
+
+    @Override
+    public Object parameter(Users users, int user, KeyChooser keys) {
+        Map<String, Object> values = new HashMap<>(generators.size() * 2 + 2);
+        generators.forEach((key, generator) -> values.put(key, generator.generate(users, user, keys)));
+        return values;
+    }
+
+    @Override
+    public boolean batchable() {
+        return batchStatement != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> row(String name, Object value) {
+        Map<String, Object> row = (Map<String, Object>) value;
+        row.put("name", name);
+        return row;
+    }
+
+    @Override
+    public void executeBatch(Transaction tx, List<Map<String, Object>> batch) {
+        tx.run(batchStatement, parameters("batch", batch)).consume();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void execute(Transaction tx, String name, Object value) {
+        Map<String, Object> parameters = (Map<String, Object>) value;
+        parameters.put("name", name);
+        StatementResult result = tx.run(QueryProfile.sample(statement), parameters);
+        while (result.hasNext()) {
+            result.next();
+        }
+        profile.record(result.summary());
+    }
+}
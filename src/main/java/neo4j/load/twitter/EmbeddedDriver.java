@@ -0,0 +1,449 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.summary.InternalSummaryCounters;
+import org.neo4j.driver.internal.types.InternalTypeSystem;
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Statement;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementRunner;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.driver.v1.exceptions.DatabaseException;
+import org.neo4j.driver.v1.exceptions.NoSuchRecordException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+import org.neo4j.driver.v1.summary.*;
+import org.neo4j.driver.v1.types.TypeSystem;
+import org.neo4j.driver.v1.util.Function;
+import org.neo4j.graphdb.ExecutionPlanDescription;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.QueryExecutionException;
+import org.neo4j.graphdb.QueryStatistics;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.api.exceptions.Status;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Driver that runs the statements in-process against an embedded database instead of over Bolt, to measure the
+ * engine without the network, driver and routing layers and to run without a server.
+ * <p>
+ * {@code embedded:} uses a temporary store that is deleted on close, {@code embedded:/path/to/store} keeps the store.
+ * Results are materialized when the statement is run, nodes and relationships are returned as their property maps,
+ * <code>PROFILE</code>d statements have their profiled plan in the summary.
+ * Errors are translated to the driver exceptions with the same status codes, so they are retried like with Bolt.
+ * There is a single instance, so bookmarks are always null.
+ * <p>
+ * Records, counters and the type system are created with classes of the driver's <code>internal</code> package,
+ * which may change in any driver release, so they are only used by {@link #record}, {@link #summaryCounters} and
+ * {@link #typeSystem}.
+ */
+class EmbeddedDriver implements Driver {
+
+    // a compile-time constant, so checking the scheme doesn't load this class
+    static final String SCHEME = "embedded:";
+
+    private final GraphDatabaseService db;
+    private final File store;
+    private final boolean temporary;
+
+    private EmbeddedDriver(File store, boolean temporary) {
+        this.store = store;
+        this.temporary = temporary;
+        this.db = new GraphDatabaseFactory().newEmbeddedDatabase(store);
+    }
+
+    static Driver open(String uri) {
+        String path = uri.substring(SCHEME.length());
+        try {
+            File store = path.isEmpty() ? Files.createTempDirectory("twitter-load").toFile() : new File(path);
+            System.out.println("Embedded database in " + store + (path.isEmpty() ? " (temporary)." : "."));
+            return new EmbeddedDriver(store, path.isEmpty());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error creating temporary store directory", e);
+        }
+    }
+
+    @Override
+    public boolean isEncrypted() {
+        return false;
+    }
+
+    @Override
+    public Session session() {
+        return new EmbeddedSession();
+    }
+
+    @Override
+    public Session session(AccessMode mode) {
+        return new EmbeddedSession();
+    }
+
+    @Override
+    public void close() {
+        db.shutdown();
+        if (temporary) delete(store);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Statements run outside of a transaction are auto-committed by {@link GraphDatabaseService#execute}.
+     */
+    private class EmbeddedRunner implements StatementRunner {
+        @Override
+        public StatementResult run(String statement, Value parameters) {
+            return run(new Statement(statement, parameters));
+        }
+
+        @Override
+        public StatementResult run(String statement, Map<String, Object> parameters) {
+            return run(new Statement(statement, parameters));
+        }
+
+        @Override
+        public StatementResult run(String statement, Record parameters) {
+            return run(new Statement(statement, parameters.asMap()));
+        }
+
+        @Override
+        public StatementResult run(String statement) {
+            return run(new Statement(statement));
+        }
+
+        @Override
+        public StatementResult run(Statement statement) {
+            try (Result result = db.execute(statement.text(), statement.parameters().asMap())) {
+                return new EmbeddedResult(statement, result);
+            } catch (RuntimeException e) {
+                throw translate(e);
+            }
+        }
+
+        @Override
+        public TypeSystem typeSystem() {
+            return EmbeddedDriver.typeSystem();
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    private class EmbeddedSession extends EmbeddedRunner implements Session {
+        @Override
+        public Transaction beginTransaction() {
+            return new EmbeddedTransaction(db.beginTx());
+        }
+
+        @Override
+        public Transaction beginTransaction(String bookmark) {
+            return beginTransaction();
+        }
+
+        @Override
+        public String lastBookmark() {
+            return null;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    /**
+     * Embedded transactions are bound to the thread, so they have to be closed by the thread that began them.
+     */
+    private class EmbeddedTransaction extends EmbeddedRunner implements Transaction {
+        private final org.neo4j.graphdb.Transaction tx;
+        private boolean open = true;
+
+        EmbeddedTransaction(org.neo4j.graphdb.Transaction tx) {
+            this.tx = tx;
+        }
+
+        @Override
+        public void success() {
+            tx.success();
+        }
+
+        @Override
+        public void failure() {
+            tx.failure();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (!open) return;
+            open = false;
+            try {
+                tx.close();
+            } catch (RuntimeException e) {
+                throw translate(e);
+            }
+        }
+    }
+
+    /**
+     * @return the driver exception for the status code of the embedded exception or one of its causes
+     */
+    static RuntimeException translate(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String code = null;
+            if (cause instanceof QueryExecutionException) code = ((QueryExecutionException) cause).getStatusCode();
+            else if (cause instanceof Status.HasStatus) code = ((Status.HasStatus) cause).status().code().serialize();
+            if (code == null) continue;
+            RuntimeException translated;
+            if (code.startsWith("Neo.TransientError.")) translated = new TransientException(code, e.getMessage());
+            else if (code.startsWith("Neo.ClientError.")) translated = new ClientException(code, e.getMessage());
+            else translated = new DatabaseException(code, e.getMessage());
+            // the driver exceptions set no cause, so the embedded exception is kept as suppressed
+            translated.addSuppressed(e);
+            return translated;
+        }
+        return e;
+    }
+
+    private static Record record(List<String> keys, Value[] values) {
+        return new InternalRecord(keys, values);
+    }
+
+    private static SummaryCounters summaryCounters(QueryStatistics stats) {
+        return new InternalSummaryCounters(stats.getNodesCreated(), stats.getNodesDeleted(),
+                stats.getRelationshipsCreated(), stats.getRelationshipsDeleted(), stats.getPropertiesSet(),
+                stats.getLabelsAdded(), stats.getLabelsRemoved(), stats.getIndexesAdded(), stats.getIndexesRemoved(),
+                stats.getConstraintsAdded(), stats.getConstraintsRemoved());
+    }
+
+    private static TypeSystem typeSystem() {
+        return InternalTypeSystem.TYPE_SYSTEM;
+    }
+
+    private static Value value(Object value) {
+        if (value instanceof PropertyContainer) return Values.value(((PropertyContainer) value).getAllProperties());
+        if (value instanceof Path) return value(((Path) value).nodes());
+        if (value instanceof Map) {
+            Map<String, Value> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey().toString(), value(entry.getValue()));
+            }
+            return Values.value((Object) map);
+        }
+        if (value instanceof Iterable) {
+            List<Value> list = new ArrayList<>();
+            for (Object item : (Iterable<?>) value) list.add(value(item));
+            return Values.value((Object) list);
+        }
+        return Values.value(value);
+    }
+
+    private static class EmbeddedResult implements StatementResult {
+        private final List<String> keys;
+        private final List<Record> records = new ArrayList<>();
+        private final ResultSummary summary;
+        private int next;
+
+        EmbeddedResult(Statement statement, Result result) {
+            keys = result.columns();
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                Value[] values = new Value[keys.size()];
+                for (int i = 0; i < values.length; i++) values[i] = value(row.get(keys.get(i)));
+                records.add(record(keys, values));
+            }
+            ProfiledPlan profile = result.getQueryExecutionType().isProfiled() ? new EmbeddedPlan(result.getExecutionPlanDescription()) : null;
+            summary = new EmbeddedSummary(statement, result.getQueryStatistics(), profile);
+        }
+
+        @Override
+        public List<String> keys() {
+            return keys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < records.size();
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return records.get(next++);
+        }
+
+        @Override
+        public Record single() throws NoSuchRecordException {
+            if (records.size() - next != 1) {
+                throw new NoSuchRecordException("Expected a result with a single record, but it has " + (records.size() - next));
+            }
+            return next();
+        }
+
+        @Override
+        public Record peek() {
+            if (!hasNext()) throw new NoSuchRecordException("Cannot peek past the last record");
+            return records.get(next);
+        }
+
+        @Override
+        public List<Record> list() {
+            List<Record> rest = new ArrayList<>(records.subList(next, records.size()));
+            next = records.size();
+            return rest;
+        }
+
+        @Override
+        public <T> List<T> list(Function<Record, T> mapFunction) {
+            List<T> rest = new ArrayList<>(records.size() - next);
+            while (hasNext()) rest.add(mapFunction.apply(next()));
+            return rest;
+        }
+
+        @Override
+        public ResultSummary consume() {
+            next = records.size();
+            return summary;
+        }
+
+        @Override
+        public ResultSummary summary() {
+            return summary;
+        }
+    }
+
+    private static class EmbeddedSummary implements ResultSummary {
+        private final Statement statement;
+        private final SummaryCounters counters;
+        private final ProfiledPlan profile;
+
+        EmbeddedSummary(Statement statement, QueryStatistics stats, ProfiledPlan profile) {
+            this.statement = statement;
+            this.profile = profile;
+            this.counters = summaryCounters(stats);
+        }
+
+        @Override
+        public Statement statement() {
+            return statement;
+        }
+
+        @Override
+        public SummaryCounters counters() {
+            return counters;
+        }
+
+        @Override
+        public StatementType statementType() {
+            return StatementType.READ_WRITE;
+        }
+
+        @Override
+        public boolean hasPlan() {
+            return profile != null;
+        }
+
+        @Override
+        public boolean hasProfile() {
+            return profile != null;
+        }
+
+        @Override
+        public Plan plan() {
+            return profile;
+        }
+
+        @Override
+        public ProfiledPlan profile() {
+            return profile;
+        }
+
+        @Override
+        public List<Notification> notifications() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long resultAvailableAfter(TimeUnit unit) {
+            return -1;
+        }
+
+        @Override
+        public long resultConsumedAfter(TimeUnit unit) {
+            return -1;
+        }
+
+        @Override
+        public ServerInfo server() {
+            return null;
+        }
+    }
+
+    private static class EmbeddedPlan implements ProfiledPlan {
+        private final ExecutionPlanDescription plan;
+        private final List<ProfiledPlan> children = new ArrayList<>();
+
+        EmbeddedPlan(ExecutionPlanDescription plan) {
+            this.plan = plan;
+            for (ExecutionPlanDescription child : plan.getChildren()) children.add(new EmbeddedPlan(child));
+        }
+
+        @Override
+        public long dbHits() {
+            return plan.hasProfilerStatistics() ? plan.getProfilerStatistics().getDbHits() : 0;
+        }
+
+        @Override
+        public long records() {
+            return plan.hasProfilerStatistics() ? plan.getProfilerStatistics().getRows() : 0;
+        }
+
+        @Override
+        public String operatorType() {
+            return plan.getName();
+        }
+
+        @Override
+        public Map<String, Value> arguments() {
+            Map<String, Value> arguments = new LinkedHashMap<>();
+            plan.getArguments().forEach((key, value) -> arguments.put(key, value(value)));
+            return arguments;
+        }
+
+        @Override
+        public List<String> identifiers() {
+            return new ArrayList<>(plan.getIdentifiers());
+        }
+
+        @Override
+        public List<ProfiledPlan> children() {
+            return children;
+        }
+    }
+}
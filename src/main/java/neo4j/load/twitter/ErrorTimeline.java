@@ -0,0 +1,150 @@
+package neo4j.load.twitter;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-second timeline of successes, failures by kind and retries, written to a CSV file (<code>errors.timeline</code>,
+ * default <code>errors.csv</code>, <code>none</code> to disable).
+ * <p>
+ * A burst of errors starts with the first second with failures and ends with the first second without.
+ * For each burst the time until the throughput is back at <code>recovery</code> (default 0.9) of the average
+ * of the 10 seconds before the burst is reported, e.g. to see how long it takes to recover after killing the leader.
+ */
+class ErrorTimeline {
+    private static final int BASELINE_SECONDS = 10;
+
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder[] failures = new LongAdder[Outcome.values().length];
+    private final long[] history = new long[BASELINE_SECONDS];
+    private final double recovery;
+    private final PrintStream output;
+    private final List<String> bursts = new ArrayList<>();
+    private final Thread ticker;
+    private long second;
+    private long quiet;
+    private Burst burst;
+
+    private static class Burst {
+        final long start;
+        final double baseline;
+        long errors;
+        long retries;
+        long end = -1;
+
+        Burst(long start, double baseline) {
+            this.start = start;
+            this.baseline = baseline;
+        }
+    }
+
+    ErrorTimeline() {
+        for (int i = 0; i < failures.length; i++) failures[i] = new LongAdder();
+        this.recovery = Settings.getDouble("recovery", 0.9);
+        String file = Settings.get("errors.timeline", "errors.csv");
+        this.output = file.equals("none") ? null : output(file);
+        this.ticker = new Thread(this::tick, "error-timeline");
+        this.ticker.setDaemon(true);
+    }
+
+    /**
+     * Starts counting seconds, when the measured load begins.
+     */
+    void start() {
+        ticker.start();
+    }
+
+    private static PrintStream output(String file) {
+        try {
+            PrintStream stream = new PrintStream(new FileOutputStream(file), false);
+            stream.println("second,successes,transient,deadlock,fatal,retries");
+            return stream;
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Error creating error timeline " + file, e);
+        }
+    }
+
+    void outcome(Outcome outcome) {
+        if (outcome == Outcome.SUCCESS) successes.increment();
+        else failures[outcome.ordinal()].increment();
+    }
+
+    void retry() {
+        retries.increment();
+    }
+
+    private void tick() {
+        long next = System.currentTimeMillis() + 1000;
+        while (true) {
+            try {
+                Thread.sleep(Math.max(0, next - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                return;
+            }
+            next += 1000;
+            second();
+        }
+    }
+
+    private synchronized void second() {
+        second++;
+        long ok = successes.sumThenReset();
+        long transients = failures[Outcome.TRANSIENT.ordinal()].sumThenReset();
+        long deadlocks = failures[Outcome.DEADLOCK.ordinal()].sumThenReset();
+        long fatal = failures[Outcome.FATAL.ordinal()].sumThenReset();
+        long retried = retries.sumThenReset();
+        long failed = transients + deadlocks + fatal;
+        if (output != null) {
+            output.println(second + "," + ok + "," + transients + "," + deadlocks + "," + fatal + "," + retried);
+            output.flush();
+        }
+        if (burst == null) {
+            if (failed > 0) {
+                burst = new Burst(second, baseline());
+            } else {
+                history[(int) (quiet++ % BASELINE_SECONDS)] = ok;
+                return;
+            }
+        }
+        burst.errors += failed;
+        burst.retries += retried;
+        if (failed > 0) {
+            burst.end = -1;
+        } else if (burst.end < 0) {
+            burst.end = second;
+        }
+        if (burst.end >= 0 && ok >= recovery * burst.baseline) {
+            finish(String.format("recovered to %.0f%% of %.0f ops/s after %d s", recovery * 100, burst.baseline, second - burst.start));
+        }
+    }
+
+    private double baseline() {
+        long sum = 0;
+        for (long ok : history) sum += ok;
+        return quiet == 0 ? 0 : (double) sum / Math.min(quiet, BASELINE_SECONDS);
+    }
+
+    private void finish(String recovered) {
+        long end = burst.end >= 0 ? burst.end : second;
+        String line = String.format("Error burst at %d s: %d errors and %d retries over %d s, %s",
+                burst.start, burst.errors, burst.retries, end - burst.start, recovered);
+        System.out.println(line);
+        bursts.add(line);
+        burst = null;
+    }
+
+    synchronized void close() {
+        ticker.interrupt();
+        if (burst != null) finish("not recovered at the end of the run");
+        if (output != null) output.close();
+    }
+
+    synchronized void report(PrintStream out) {
+        for (String line : bursts) out.println(line);
+    }
+}
@@ -0,0 +1,170 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses the user ids operations run for, without allocating. Low ids are the oldest users, which the
+ * {@link Seeder} also made the most followed ones. Created from a spec (<code>-Dkeys=zipf:0.99</code>,
+ * per operation <code>-Dkeys.TWEET=hotspot:80:1</code>):
+ * <ul>
+ * <li><code>uniform</code> every user equally likely (default)</li>
+ * <li><code>zipf:theta</code> Zipfian over the user ids with exponent 0 &lt; theta &lt; 1, the oldest users are the most popular</li>
+ * <li><code>hotspot:x:y</code> x% of the operations go to the first (oldest) y% of the users</li>
+ * <li><code>latest:theta</code> Zipfian over the recency, the most recently created users are the most popular</li>
+ * </ul>
+ * Each chooser counts its operations, deadlocks and retries and records the end-to-end latency of its writes
+ * (including network and commit, the driver doesn't expose the server's lock wait), to compare the distributions.
+ * All callers pass the size of the whole registry, so the precomputed Zipfian constants always fit.
+ */
+abstract class KeyChooser {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    final String spec;
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final Recorder writeLatency = new Recorder(3);
+
+    KeyChooser(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @param size number of users, the result is in [0,size)
+     */
+    abstract int next(int size, ThreadLocalRandom random);
+
+    static KeyChooser parse(String spec) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "uniform":
+                return new Uniform(spec);
+            case "zipf":
+                return new Zipfian(spec, Double.parseDouble(parts[1]), false);
+            case "latest":
+                return new Zipfian(spec, Double.parseDouble(parts[1]), true);
+            case "hotspot":
+                return new Hotspot(spec, Double.parseDouble(parts[1]) / 100, Double.parseDouble(parts[2]) / 100);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution " + spec);
+        }
+    }
+
+    void executed(boolean writes, long latency) {
+        operations.increment();
+        if (writes) writeLatency.recordValue(latency);
+    }
+
+    void deadlocked() {
+        deadlocks.increment();
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    long deadlocks() {
+        return deadlocks.sum();
+    }
+
+    static void report(PrintStream out, Iterable<KeyChooser> choosers) {
+        out.printf("%-20s %12s %10s %10s %12s %12s%n", "Keys", "Operations", "Deadlocks", "Retries", "Write p50", "Write p99");
+        for (KeyChooser chooser : choosers) {
+            Histogram writes = chooser.writeLatency.getIntervalHistogram();
+            out.printf("%-20s %12d %10d %10d %12.3f %12.3f%n", chooser.spec, chooser.operations.sum(), chooser.deadlocks.sum(), chooser.retries.sum(),
+                    writes.getValueAtPercentile(50) / MILLIS, writes.getValueAtPercentile(99) / MILLIS);
+        }
+    }
+
+    static class Uniform extends KeyChooser {
+        Uniform(String spec) {
+            super(spec);
+        }
+
+        int next(int size, ThreadLocalRandom random) {
+            return random.nextInt(size);
+        }
+    }
+
+    static class Hotspot extends KeyChooser {
+        private final double hotOperations;
+        private final double hotUsers;
+
+        Hotspot(String spec, double hotOperations, double hotUsers) {
+            super(spec);
+            this.hotOperations = hotOperations;
+            this.hotUsers = hotUsers;
+        }
+
+        int next(int size, ThreadLocalRandom random) {
+            int hot = Math.max(1, (int) (size * hotUsers));
+            if (hot >= size || random.nextDouble() < hotOperations) {
+                return random.nextInt(Math.min(hot, size));
+            }
+            return hot + random.nextInt(size - hot);
+        }
+    }
+
+    /**
+     * Zipfian generator of Gray et al. "Quickly Generating Billion-Record Synthetic Databases" as used by YCSB.
+     * The zeta constant is precomputed and only extended incrementally once the number of users grew by more than 1%.
+     */
+    static class Zipfian extends KeyChooser {
+        private final double theta;
+        private final double alpha;
+        private final double zeta2;
+        private final boolean latest;
+        private volatile State state = new State(0, 0);
+
+        private class State {
+            final int n;
+            final double zetan;
+            final double eta;
+
+            State(int n, double zetan) {
+                this.n = n;
+                this.zetan = zetan;
+                this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+            }
+        }
+
+        Zipfian(String spec, double theta, boolean latest) {
+            super(spec);
+            if (theta <= 0 || theta >= 1) throw new IllegalArgumentException("The Zipfian exponent must be in (0,1) but was " + theta);
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zeta2 = 1 + Math.pow(0.5, theta);
+            this.latest = latest;
+        }
+
+        int next(int size, ThreadLocalRandom random) {
+            State state = this.state;
+            if (size > state.n + state.n / 100) state = grow(size);
+            int n = Math.min(size, state.n);
+            double u = random.nextDouble();
+            double uz = u * state.zetan;
+            int rank;
+            if (uz < 1) rank = 0;
+            else if (uz < zeta2) rank = 1;
+            else rank = (int) (n * Math.pow(state.eta * u - state.eta + 1, alpha));
+            rank = Math.min(rank, n - 1);
+            return latest ? size - 1 - rank : rank;
+        }
+
+        private synchronized State grow(int size) {
+            State state = this.state;
+            if (size <= state.n) return state;
+            double zetan = state.zetan;
+            for (int i = state.n + 1; i <= size; i++) {
+                zetan += 1 / Math.pow(i, theta);
+            }
+            return this.state = new State(size, zetan);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+
+import java.io.PrintStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Measures causal consistency under load: every <code>probe.interval</code> millis a marker is written on the leader,
+ * then read from READ sessions (routed to the read replicas / followers) with and without the bookmark of the write.
+ * <p>
+ * Without the bookmark the marker is polled (with pauses from 1 up to 10 millis) until it's visible, which gives the
+ * replication lag (from the commit returning to the marker being readable) and whether the first read was stale. With the bookmark the read must never
+ * be stale, the time <code>beginTransaction(bookmark)</code> blocks is recorded as bookmark wait.
+ */
+class LagProbe implements AutoCloseable {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final String WRITE = "MERGE (p:LagProbe {id:{id}}) SET p.seq = {seq}";
+    private static final String READ = "MATCH (p:LagProbe {id:{id}}) RETURN p.seq as seq";
+    // pauses between polls of a stale marker, doubled from min to max
+    private static final long POLL_MIN = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long POLL_MAX = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Driver driver;
+    private final long intervalMillis;
+    private final long timeout;
+    private final String id = UUID.randomUUID().toString();
+    private final Histogram lag = new Histogram(3);
+    private final Histogram bookmarkWait = new Histogram(3);
+    private long probes;
+    private long staleReads;
+    private long staleBookmarkReads;
+    private long timeouts;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private LagProbe(Driver driver, long intervalMillis, long timeoutMillis) {
+        this.driver = driver;
+        this.intervalMillis = intervalMillis;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.thread = new Thread(this::probe, "lag-probe");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * @return the probe configured by <code>probe.interval</code> (millis, 0 disables it) and <code>probe.timeout</code>, or null
+     */
+    static LagProbe fromSettings(Driver driver) {
+        long interval = Settings.getLong("probe.interval", 0);
+        if (interval <= 0) return null;
+        LagProbe probe = new LagProbe(driver, interval, Settings.getLong("probe.timeout", 10000));
+        probe.thread.start();
+        System.out.println("Probing replication lag every " + interval + " ms.");
+        return probe;
+    }
+
+    private void probe() {
+        try (Session writeSession = driver.session(AccessMode.WRITE);
+             Session readSession = driver.session(AccessMode.READ);
+             Session bookmarkSession = driver.session(AccessMode.READ)) {
+            for (long seq = 1; running; seq++) {
+                try {
+                    probe(writeSession, readSession, bookmarkSession, seq);
+                } catch (Exception e) {
+                    System.err.println("Lag probe failed: " + e.getMessage());
+                }
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void probe(Session writeSession, Session readSession, Session bookmarkSession, long seq) {
+        // the driver only sets the bookmark when an explicit transaction closes
+        try (Transaction tx = writeSession.beginTransaction()) {
+            tx.run(WRITE, parameters("id", id, "seq", seq)).consume();
+            tx.success();
+        }
+        long committed = System.nanoTime();
+        String bookmark = writeSession.lastBookmark();
+        boolean stale = read(readSession) < seq;
+        long visible = System.nanoTime();
+        boolean timedOut = false;
+        long pause = POLL_MIN;
+        while (stale) {
+            if (visible - committed > timeout) {
+                timedOut = true;
+                break;
+            }
+            if (!running) return;
+            LockSupport.parkNanos(Math.min(pause, committed + timeout - visible));
+            pause = Math.min(pause * 2, POLL_MAX);
+            boolean caughtUp = read(readSession) >= seq;
+            visible = System.nanoTime();
+            if (caughtUp) break;
+        }
+        long waited;
+        long seen;
+        long begin = System.nanoTime();
+        try (Transaction tx = bookmarkSession.beginTransaction(bookmark)) {
+            waited = System.nanoTime() - begin;
+            seen = seq(tx);
+            tx.success();
+        }
+        synchronized (this) {
+            probes++;
+            if (stale) staleReads++;
+            if (timedOut) timeouts++;
+            else lag.recordValue(visible - committed);
+            if (seen < seq) staleBookmarkReads++;
+            bookmarkWait.recordValue(waited);
+        }
+    }
+
+    private long read(Session session) {
+        try (Transaction tx = session.beginTransaction()) {
+            long seq = seq(tx);
+            tx.success();
+            return seq;
+        }
+    }
+
+    /**
+     * @return the sequence number of the marker, 0 if it's not visible yet
+     */
+    private long seq(Transaction tx) {
+        StatementResult result = tx.run(READ, parameters("id", id));
+        return result.hasNext() ? result.next().get("seq").asLong() : 0;
+    }
+
+    /**
+     * Stops probing and removes the marker.
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(timeout / 1_000_000 + intervalMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (Session session = driver.session(AccessMode.WRITE)) {
+            session.run("MATCH (p:LagProbe {id:{id}}) DELETE p", parameters("id", id)).consume();
+        }
+    }
+
+    synchronized void report(PrintStream out) {
+        if (probes == 0) return;
+        out.printf("Causal consistency probe, %d probes:%n", probes);
+        out.printf("  replication lag in millis: p50 %.3f, p99 %.3f, max %.3f, %d timed out after %d ms%n",
+                lag.getValueAtPercentile(50) / MILLIS, lag.getValueAtPercentile(99) / MILLIS, lag.getMaxValue() / MILLIS,
+                timeouts, TimeUnit.NANOSECONDS.toMillis(timeout));
+        out.printf("  stale reads without bookmark: %.2f%%, with bookmark: %.2f%%%n",
+                100d * staleReads / probes, 100d * staleBookmarkReads / probes);
+        out.printf("  bookmark wait in millis: p50 %.3f, p99 %.3f, max %.3f%n",
+                bookmarkWait.getValueAtPercentile(50) / MILLIS, bookmarkWait.getValueAtPercentile(99) / MILLIS,
+                bookmarkWait.getMaxValue() / MILLIS);
+    }
+}
@@ -0,0 +1,300 @@
+package neo4j.load.twitter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Publishes the windowed metrics of every reporting interval: printed as one line, appended to a CSV
+ * (or JSON lines, if the file ends with <code>.json</code>) file, as attributes of a JMX MBean and, if a port is given,
+ * in the Prometheus text format on <code>http://localhost:port/metrics</code>.
+ */
+class LiveMetrics implements DynamicMBean {
+    private static final String PREFIX = "twitter_load_";
+
+    private final String[] operations;
+    private final PrintStream output;
+    private final boolean json;
+    private final HttpServer server;
+    private final ObjectName name;
+    private volatile Snapshot last;
+
+    /**
+     * Metrics of one reporting interval, latencies in millis.
+     */
+    static class Snapshot {
+        final long timestamp;
+        final double seconds;
+        final int inFlight;
+        final long[] counts;
+        final long[] errors;
+        final long[] totalCounts;
+        final long[] totalErrors;
+        final double[] p50;
+        final double[] p99;
+        final double[] max;
+
+        Snapshot(long timestamp, double seconds, int inFlight, int operations) {
+            this.timestamp = timestamp;
+            this.seconds = seconds;
+            this.inFlight = inFlight;
+            this.counts = new long[operations];
+            this.errors = new long[operations];
+            this.totalCounts = new long[operations];
+            this.totalErrors = new long[operations];
+            this.p50 = new double[operations];
+            this.p99 = new double[operations];
+            this.max = new double[operations];
+        }
+
+        double throughput() {
+            long sum = 0;
+            for (long count : counts) sum += count;
+            return seconds > 0 ? sum / seconds : 0;
+        }
+
+        long errors() {
+            long sum = 0;
+            for (long error : errors) sum += error;
+            return sum;
+        }
+    }
+
+    private LiveMetrics(String[] operations, String output, int port) {
+        this.operations = operations;
+        this.json = output != null && output.endsWith(".json");
+        this.output = output == null ? null : output(output);
+        this.server = port > 0 ? server(port) : null;
+        this.name = register();
+    }
+
+    /**
+     * Configured by <code>live.output</code> (default <code>live.csv</code>, <code>none</code> to disable)
+     * and <code>live.port</code> (default 0, no HTTP endpoint).
+     */
+    static LiveMetrics fromSettings(String[] operations) {
+        String output = Settings.get("live.output", "live.csv");
+        return new LiveMetrics(operations, output.equals("none") ? null : output, Settings.getInt("live.port", 0));
+    }
+
+    private PrintStream output(String file) {
+        try {
+            PrintStream stream = new PrintStream(new FileOutputStream(file), false);
+            if (!json) {
+                StringBuilder header = new StringBuilder("timestamp,seconds,throughput,errors,inFlight");
+                for (String operation : operations) {
+                    header.append(',').append(operation).append("_count,").append(operation).append("_errors,")
+                            .append(operation).append("_p50,").append(operation).append("_p99,").append(operation).append("_max");
+                }
+                stream.println(header);
+            }
+            return stream;
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Error creating live metrics file " + file, e);
+        }
+    }
+
+    private HttpServer server(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+            server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4", prometheus()));
+            server.createContext("/json", exchange -> respond(exchange, "application/json", json(last)));
+            server.start();
+            System.out.println("Metrics on http://localhost:" + port + "/metrics");
+            return server;
+        } catch (IOException e) {
+            throw new RuntimeException("Error starting metrics endpoint on port " + port, e);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private ObjectName register() {
+        try {
+            ObjectName name = new ObjectName("neo4j.load.twitter:type=LiveMetrics");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            System.err.println("Error registering live metrics MBean: " + e.getMessage());
+            return null;
+        }
+    }
+
+    void publish(Snapshot snapshot) {
+        last = snapshot;
+        System.out.printf(Locale.ROOT, "%.1f ops/s over %.0f s, %d errors, %d in-flight%n",
+                snapshot.throughput(), snapshot.seconds, snapshot.errors(), snapshot.inFlight);
+        if (output == null) return;
+        output.println(json ? json(snapshot) : csv(snapshot));
+        output.flush();
+    }
+
+    void close() {
+        if (output != null) output.close();
+        if (server != null) server.stop(0);
+        try {
+            if (name != null) ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Error unregistering live metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private String csv(Snapshot s) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(s.timestamp).append(',').append(format(s.seconds)).append(',').append(format(s.throughput()))
+                .append(',').append(s.errors()).append(',').append(s.inFlight);
+        for (int op = 0; op < operations.length; op++) {
+            sb.append(',').append(s.counts[op]).append(',').append(s.errors[op]).append(',').append(format(s.p50[op]))
+                    .append(',').append(format(s.p99[op])).append(',').append(format(s.max[op]));
+        }
+        return sb.toString();
+    }
+
+    private String json(Snapshot s) {
+        if (s == null) return "{}";
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"timestamp\":").append(s.timestamp).append(",\"seconds\":").append(format(s.seconds))
+                .append(",\"throughput\":").append(format(s.throughput())).append(",\"errors\":").append(s.errors())
+                .append(",\"inFlight\":").append(s.inFlight).append(",\"operations\":{");
+        for (int op = 0; op < operations.length; op++) {
+            if (op > 0) sb.append(',');
+            sb.append('"').append(operations[op]).append("\":{\"count\":").append(s.counts[op])
+                    .append(",\"errors\":").append(s.errors[op]).append(",\"p50\":").append(format(s.p50[op]))
+                    .append(",\"p99\":").append(format(s.p99[op])).append(",\"max\":").append(format(s.max[op])).append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    private String prometheus() {
+        Snapshot s = last;
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder();
+        gauge(sb, "throughput", "operations per second in the last interval", format(s.throughput()));
+        gauge(sb, "in_flight", "operations in progress", String.valueOf(s.inFlight));
+        sb.append("# HELP ").append(PREFIX).append("operations_total executed operations\n");
+        sb.append("# TYPE ").append(PREFIX).append("operations_total counter\n");
+        for (int op = 0; op < operations.length; op++) {
+            sb.append(PREFIX).append("operations_total{operation=\"").append(operations[op]).append("\"} ").append(s.totalCounts[op]).append('\n');
+        }
+        sb.append("# HELP ").append(PREFIX).append("errors_total failed operations\n");
+        sb.append("# TYPE ").append(PREFIX).append("errors_total counter\n");
+        for (int op = 0; op < operations.length; op++) {
+            sb.append(PREFIX).append("errors_total{operation=\"").append(operations[op]).append("\"} ").append(s.totalErrors[op]).append('\n');
+        }
+        sb.append("# HELP ").append(PREFIX).append("latency_seconds latency in the last interval, quantile 1 is the max\n");
+        sb.append("# TYPE ").append(PREFIX).append("latency_seconds summary\n");
+        for (int op = 0; op < operations.length; op++) {
+            quantile(sb, operations[op], "0.5", s.p50[op]);
+            quantile(sb, operations[op], "0.99", s.p99[op]);
+            quantile(sb, operations[op], "1", s.max[op]);
+        }
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, String value) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void quantile(StringBuilder sb, String operation, String quantile, double millis) {
+        sb.append(PREFIX).append("latency_seconds{operation=\"").append(operation).append("\",quantile=\"").append(quantile)
+                .append("\"} ").append(format(millis / 1000)).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    // JMX attributes: Throughput, Errors, InFlight and per operation <operation>.Count, .Errors, .P50, .P99, .Max (millis)
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Snapshot s = last;
+        switch (attribute) {
+            case "Throughput": return s == null ? 0d : s.throughput();
+            case "Errors": return s == null ? 0L : s.errors();
+            case "InFlight": return s == null ? 0 : s.inFlight;
+        }
+        int dot = attribute.lastIndexOf('.');
+        int op = dot < 0 ? -1 : Arrays.asList(operations).indexOf(attribute.substring(0, dot));
+        if (op < 0) throw new AttributeNotFoundException(attribute);
+        switch (attribute.substring(dot + 1)) {
+            case "Count": return s == null ? 0L : s.counts[op];
+            case "Errors": return s == null ? 0L : s.errors[op];
+            case "P50": return s == null ? 0d : s.p50[op];
+            case "P99": return s == null ? 0d : s.p99[op];
+            case "Max": return s == null ? 0d : s.max[op];
+            default: throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList result = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                result.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skipped as specified by DynamicMBean
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Live metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(attribute("Throughput", "double", "operations per second in the last interval"));
+        attributes.add(attribute("Errors", "long", "failed operations in the last interval"));
+        attributes.add(attribute("InFlight", "int", "operations in progress"));
+        for (String operation : operations) {
+            attributes.add(attribute(operation + ".Count", "long", "executions in the last interval"));
+            attributes.add(attribute(operation + ".Errors", "long", "failures in the last interval"));
+            attributes.add(attribute(operation + ".P50", "double", "median latency in millis in the last interval"));
+            attributes.add(attribute(operation + ".P99", "double", "99th percentile latency in millis in the last interval"));
+            attributes.add(attribute(operation + ".Max", "double", "max latency in millis in the last interval"));
+        }
+        return new MBeanInfo(getClass().getName(), "Live load test metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                null, null, null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String type, String description) {
+        return new MBeanAttributeInfo(name, type, description, true, false, false);
+    }
+}
@@ -19,6 +19,7 @@ import static org.neo4j.driver.v1.Values.parameters;
 public class LoadGeneratorMethods {
 
     static boolean log = false;
+    private static final Workload workload = Workload.defaults();
 
     private static ThreadLocalRandom random() {
         return ThreadLocalRandom.current();
@@ -64,19 +65,15 @@ public class LoadGeneratorMethods {
         long time = System.nanoTime();
         try (Session session = driver.session()) {
             while (true) {
-                executeOperation(roll(), session, users);
+                executeOperation(session, users);
                 tx++;
                 if (tx % 10000 == 0) {
-                    System.out.println(thread + ". TX/S: "+tx / secondsSince(time));
+                    System.out.println(thread + ". TX/S: "+tx / Math.max(1, secondsSince(time)));
                 }
             }
         }
     }
 
-    private static int roll() {
-        return random().nextInt(100);
-    }
-
     private long secondsSince(long time) {
         return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - time);
     }
@@ -92,38 +89,16 @@ public class LoadGeneratorMethods {
                 parameters("name", name, "friends", friends)).consume();
     }
 
-    private void executeOperation(int chance, Session session, Users users) {
-        if ((chance -= 1) < 0)
-            createUser(session, users.newName(), users.randomUsers(10));
-        else if ((chance -= 15) < 0)
-            createTweet(session, users.randomUser());
-        else if ((chance -= 76) < 0)
-            readStream(session, users.randomUser());
-        else if ((chance -= 8) < 0)
-            followRecommendation(session, users.randomUser());
-    }
-
-    private void followRecommendation2(Session session, String name) {
-        if (log) System.out.println("Follow recommendation for "+name);
-        StatementResult result = session.run("MATCH (u:User {name:{name}})-[:FOLLOWS]->(f)\n" +
-                        "WITH u,f ORDER BY rand() LIMIT 20\n" +
-                        "MATCH (f)-[r:FOLLOWS]->(f2) // todo move up for triadic closure\n" +
-                        "WHERE NOT (u)-[:FOLLOWS]->(f2)\n" +
-                        "// todo that's also the natural graph relationship retrieval order, latest followers first\n" +
-                        "WITH f, f2 ORDER BY r.time DESC \n" +
-                        "WITH f, collect(f2)[..30] as top30\n" +
-                        "UNWIND top30 as reco\n" +
-                        "RETURN reco.name as name, count(*) as freq\n" +
-                        "ORDER BY freq DESC LIMIT 5;\n",
-                parameters("name", name));
-        List<String> friends = result.list((r) -> r.get("name").asString());
-        ThreadLocalRandom random = random();
-        int chance = random.nextInt(100);
-        if ((chance - 30) < 0 && friends.size() > 0) {
-            String friend = friends.get(random.nextInt(friends.size()));
-            followUser(session, name, friend);
+    private void executeOperation(Session session, Users users) {
+        switch ((LoadGenerator.Operations) workload.operations[workload.next(random())]) {
+            case CREATE_USER: createUser(session, users.newName(), users.randomUsers(10)); break;
+            case TWEET: createTweet(session, users.name(users.randomUser())); break;
+            case READ_TWEETS: readStream(session, users.name(users.randomUser())); break;
+            case FOLLOW_RECOMMENDATION: followRecommendation(session, users.name(users.randomUser())); break;
+            case FOLLOW: followUser(session, users.name(users.randomUser()), users.name(users.randomUser())); break;
         }
     }
+
     private void followRecommendation(Session session, String name) {
         if (log) System.out.println("Follow recommendation for "+name);
         StatementResult result = session.run("MATCH (u:User {name:{name}})-[:FOLLOWS]->(f)-[r:FOLLOWS]->(f2)\n" +
@@ -151,25 +126,12 @@ public class LoadGeneratorMethods {
 
     private int readStream(Session session, String name) {
         if (log) System.out.println("Read stream for "+name);
-        int count = 0;
-        StatementResult result = session.run("MATCH (u:User {name:{name}})-[:STREAM]->(t:Tweet)\n" +
-                "RETURN t.text, t.time\n" +
-                "ORDER BY t.time DESC LIMIT 10;", parameters("name", name));
-        while (result.hasNext()) {
-            result.next();
-            count++;
-        }
-        return count;
+        return Timeline.selected().read(session, name);
     }
 
     private void createTweet(Session session, String user) {
         if (log) System.out.println("Create Tweet for "+user);
-        // todo remove older stream tweets (e.g. > 50,100,100) and retrieve them if needed from the followed users themselves
-        session.run("MATCH (u:User {name:{name}})\n" +
-                        "CREATE (u)-[:TWEETS]->(t:Tweet {text:{text},time:timestamp()})\n" +
-                        "WITH (u),(t) " +
-                        "MATCH (u)<-[:FOLLOWS]-(f)\n" +
-                        "CREATE (f)-[:STREAM]->(t);",
-                parameters("name", user, "text", "A Tweet by " + user + " at " + new Date())).consume();
+        // older stream tweets are trimmed by the CAPPED and pulled from the followed users by the FANOUT_READ and HYBRID timelines
+        Timeline.selected().tweet(session, user, "A Tweet by " + user + " at " + new Date());
     }
 }
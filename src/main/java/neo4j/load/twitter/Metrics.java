@@ -0,0 +1,307 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency recording per operation and thread. Each thread writes only to its own recorders, a single
+ * reporter thread collects the interval histograms, merges them per operation, appends them to an
+ * HdrHistogram interval log (one tag per operation) and accumulates them for the final report
+ * and for the current phase. After every interval the windowed metrics are published as {@link LiveMetrics}.
+ */
+class Metrics implements CapacitySearch.Phases {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DIGITS = 3;
+
+    private final String[] operations;
+    private final SingleWriterRecorder[][] recorders;
+    private final SingleWriterRecorder[][] failureRecorders;
+    private final Histogram[] totals;
+    private final Histogram[] failureTotals;
+    private final Histogram[] intervals;
+    private final Histogram[] windows;
+    private final long[] windowErrors;
+    private final Histogram scratch = new Histogram(DIGITS);
+    private final Histogram phase = new Histogram(DIGITS);
+    private final LongAdder[] errors;
+    private final LongAdder[] retries;
+    private final LongAdder[] failures = new LongAdder[Outcome.values().length];
+    private final ErrorTimeline timeline = new ErrorTimeline();
+    private final Recorder[] bookmarkWaits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LiveMetrics live;
+    private long phaseErrors;
+    private final PrintStream logStream;
+    private final HistogramLogWriter log;
+    private final long intervalMillis;
+    private final long startMillis = System.currentTimeMillis();
+    private final Thread reporter;
+    private long lastMillis = startMillis;
+    private long windowMillis = startMillis;
+    private volatile boolean running = true;
+
+    Metrics(String[] operations, int threads, String logFile, long intervalMillis) {
+        this.operations = operations;
+        this.intervalMillis = intervalMillis;
+        this.recorders = new SingleWriterRecorder[threads][operations.length];
+        this.failureRecorders = new SingleWriterRecorder[threads][operations.length];
+        this.totals = new Histogram[operations.length];
+        this.failureTotals = new Histogram[operations.length];
+        this.retries = new LongAdder[operations.length];
+        for (int i = 0; i < failures.length; i++) failures[i] = new LongAdder();
+        this.intervals = new Histogram[operations.length];
+        this.windows = new Histogram[operations.length];
+        this.windowErrors = new long[operations.length];
+        this.errors = new LongAdder[operations.length];
+        this.bookmarkWaits = new Recorder[operations.length];
+        for (int op = 0; op < operations.length; op++) {
+            errors[op] = new LongAdder();
+            retries[op] = new LongAdder();
+            bookmarkWaits[op] = new Recorder(DIGITS);
+            for (int thread = 0; thread < threads; thread++) {
+                recorders[thread][op] = new SingleWriterRecorder(DIGITS);
+                failureRecorders[thread][op] = new SingleWriterRecorder(DIGITS);
+            }
+            totals[op] = new Histogram(DIGITS);
+            failureTotals[op] = new Histogram(DIGITS);
+            intervals[op] = new Histogram(DIGITS);
+            windows[op] = new Histogram(DIGITS);
+        }
+        this.live = LiveMetrics.fromSettings(operations);
+        this.logStream = logStream(logFile);
+        this.log = logStream == null ? null : logWriter(logStream);
+        this.reporter = new Thread(this::report, "metrics-reporter");
+        this.reporter.setDaemon(true);
+    }
+
+    /**
+     * Starts publishing intervals once the measured load begins, so seeding and warmup don't show up as idle windows.
+     */
+    synchronized void start() {
+        lastMillis = windowMillis = System.currentTimeMillis();
+        timeline.start();
+        reporter.start();
+    }
+
+    private PrintStream logStream(String logFile) {
+        if (logFile == null) return null;
+        try {
+            return new PrintStream(new FileOutputStream(logFile), false);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Error creating histogram log " + logFile, e);
+        }
+    }
+
+    private HistogramLogWriter logWriter(PrintStream stream) {
+        HistogramLogWriter writer = new HistogramLogWriter(stream);
+        writer.outputLogFormatVersion();
+        writer.outputStartTime(startMillis);
+        writer.setBaseTime(startMillis);
+        writer.outputLegend();
+        return writer;
+    }
+
+    /**
+     * Recorders of one thread indexed by operation, must only be written to from that thread.
+     */
+    SingleWriterRecorder[] forThread(int thread) {
+        return recorders[thread];
+    }
+
+    /**
+     * Recorders of one thread for the latency of failed operations.
+     */
+    SingleWriterRecorder[] failuresForThread(int thread) {
+        return failureRecorders[thread];
+    }
+
+    void outcome(int op, Outcome outcome) {
+        timeline.outcome(outcome);
+        if (outcome == Outcome.SUCCESS) return;
+        errors[op].increment();
+        failures[outcome.ordinal()].increment();
+    }
+
+    long errors(int op) {
+        return errors[op].sum();
+    }
+
+    long retries(int op) {
+        return retries[op].sum();
+    }
+
+    void retry(int op) {
+        retries[op].increment();
+        timeline.retry();
+    }
+
+    /**
+     * Records how long beginning a transaction with a bookmark blocked, i.e. waited for the server to catch up.
+     */
+    void bookmarkWait(int op, long nanos) {
+        bookmarkWaits[op].recordValue(nanos);
+    }
+
+    /**
+     * Marks the start of a transaction, for the number of in-flight operations.
+     */
+    void begin() {
+        inFlight.incrementAndGet();
+    }
+
+    void end() {
+        inFlight.decrementAndGet();
+    }
+
+    private long errors() {
+        long sum = 0;
+        for (LongAdder error : errors) sum += error.sum();
+        return sum;
+    }
+
+    /**
+     * Starts a new phase (e.g. a step of a capacity search), whose latencies and errors are collected separately.
+     */
+    public synchronized void startPhase() {
+        collect();
+        phase.reset();
+        phaseErrors = errors();
+    }
+
+    /**
+     * @return latencies of the successful operations since the phase started
+     */
+    public synchronized Histogram phaseLatencies() {
+        collect();
+        return phase.copy();
+    }
+
+    /**
+     * @return number of failed operations since the phase started
+     */
+    public synchronized long phaseErrors() {
+        return errors() - phaseErrors;
+    }
+
+    private void report() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            publish();
+        }
+    }
+
+    private synchronized void publish() {
+        collect();
+        long now = System.currentTimeMillis();
+        LiveMetrics.Snapshot snapshot = new LiveMetrics.Snapshot(now, (now - windowMillis) / 1000d, inFlight.get(), operations.length);
+        for (int op = 0; op < operations.length; op++) {
+            Histogram window = windows[op];
+            long errorCount = errors[op].sum();
+            snapshot.counts[op] = window.getTotalCount();
+            snapshot.errors[op] = errorCount - windowErrors[op];
+            snapshot.totalCounts[op] = totals[op].getTotalCount();
+            snapshot.totalErrors[op] = errorCount;
+            snapshot.p50[op] = window.getValueAtPercentile(50) / MILLIS;
+            snapshot.p99[op] = window.getValueAtPercentile(99) / MILLIS;
+            snapshot.max[op] = window.getMaxValue() / MILLIS;
+            window.reset();
+            windowErrors[op] = errorCount;
+        }
+        windowMillis = now;
+        live.publish(snapshot);
+    }
+
+    private synchronized void collect() {
+        long now = System.currentTimeMillis();
+        for (int op = 0; op < operations.length; op++) {
+            Histogram interval = intervals[op];
+            interval.reset();
+            for (SingleWriterRecorder[] thread : recorders) {
+                thread[op].getIntervalHistogramInto(scratch);
+                interval.add(scratch);
+            }
+            totals[op].add(interval);
+            windows[op].add(interval);
+            for (SingleWriterRecorder[] thread : failureRecorders) {
+                thread[op].getIntervalHistogramInto(scratch);
+                failureTotals[op].add(scratch);
+            }
+            phase.add(interval);
+            if (log != null && interval.getTotalCount() > 0) {
+                interval.setTag(operations[op]);
+                interval.setStartTimeStamp(lastMillis);
+                interval.setEndTimeStamp(now);
+                log.outputIntervalHistogram(interval);
+            }
+        }
+        lastMillis = now;
+        if (logStream != null) logStream.flush();
+    }
+
+    void stop(PrintStream out) {
+        running = false;
+        reporter.interrupt();
+        collect();
+        if (logStream != null) logStream.close();
+        live.close();
+        timeline.close();
+        Histogram overall = new Histogram(DIGITS);
+        long allRetries = 0;
+        header(out);
+        for (int op = 0; op < operations.length; op++) {
+            print(out, operations[op], totals[op], errors[op].sum(), retries[op].sum());
+            overall.add(totals[op]);
+            allRetries += retries[op].sum();
+        }
+        print(out, "ALL", overall, errors(), allRetries);
+        out.println("Latency distribution of all successful operations in millis:");
+        overall.outputPercentileDistribution(out, 1, MILLIS);
+        if (errors() > 0) {
+            out.printf("Failures: %d transient, %d deadlocks, %d fatal, latency of failed operations in millis:%n",
+                    failures[Outcome.TRANSIENT.ordinal()].sum(), failures[Outcome.DEADLOCK.ordinal()].sum(), failures[Outcome.FATAL.ordinal()].sum());
+            header(out);
+            for (int op = 0; op < operations.length; op++) {
+                if (failureTotals[op].getTotalCount() > 0) print(out, operations[op], failureTotals[op], errors[op].sum(), retries[op].sum());
+            }
+            timeline.report(out);
+        }
+        boolean header = false;
+        for (int op = 0; op < operations.length; op++) {
+            Histogram waits = bookmarkWaits[op].getIntervalHistogram();
+            if (waits.getTotalCount() == 0) continue;
+            if (!header) {
+                out.println("Bookmark wait (beginTransaction with a bookmark) in millis:");
+                header(out);
+                header = true;
+            }
+            print(out, operations[op], waits, 0, 0);
+        }
+    }
+
+    static void header(PrintStream out) {
+        out.printf("%-30s %10s %10s %10s %10s %10s %10s %10s %10s %10s%n", "Operation", "Count", "Errors", "Retries", "Mean", "p50", "p99", "p99.9", "p99.99", "Max");
+    }
+
+    static void print(PrintStream out, String name, Histogram histogram, long errors, long retries) {
+        out.printf("%-30s %10d %10d %10d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getTotalCount(), errors, retries,
+                histogram.getMean() / MILLIS,
+                histogram.getValueAtPercentile(50) / MILLIS,
+                histogram.getValueAtPercentile(99) / MILLIS,
+                histogram.getValueAtPercentile(99.9) / MILLIS,
+                histogram.getValueAtPercentile(99.99) / MILLIS,
+                histogram.getMaxValue() / MILLIS);
+    }
+}
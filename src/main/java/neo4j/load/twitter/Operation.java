@@ -0,0 +1,75 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.Transaction;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An operation of a workload, either one of the built-in {@link LoadGenerator.Operations} or a {@link CypherOperation}
+ * defined in a workload file.
+ */
+interface Operation extends LoadGenerator.Action {
+    String name();
+
+    boolean writes();
+
+    /**
+     * Read-your-own-writes, the transaction waits for the last bookmark of the user.
+     */
+    boolean ryow();
+
+    /**
+     * Id of the user the operation runs for, its name is passed to execute.
+     * @param keys distribution to choose existing users from
+     */
+    int user(Users users, KeyChooser keys);
+
+    /**
+     * Additional value passed to execute, e.g. the users a new user follows.
+     */
+    Object parameter(Users users, int user, KeyChooser keys);
+
+    /**
+     * If several executions of this operation can be written in one statement with {@link #executeBatch}.
+     */
+    default boolean batchable() {
+        return false;
+    }
+
+    /**
+     * Row of the user name and parameter value for {@link #executeBatch}.
+     */
+    default Map<String, Object> row(String name, Object value) {
+        throw new UnsupportedOperationException(name() + " can't be batched");
+    }
+
+    /**
+     * Executes all rows in one statement, as <code>UNWIND {batch} as row</code>.
+     */
+    default void executeBatch(Transaction tx, List<Map<String, Object>> batch) {
+        throw new UnsupportedOperationException(name() + " can't be batched");
+    }
+
+    /**
+     * Alternative statements of this operation by variant name, for A/B comparisons of query rewrites.
+     */
+    default Map<String, String> variants() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return the operation <code>NAME/variant</code> that runs the given statement instead
+     */
+    default Operation variant(String variant, String statement) {
+        throw new UnsupportedOperationException(name() + " has no variants");
+    }
+
+    /**
+     * Sampled profile of the operation's statement, or null if it isn't profiled.
+     */
+    default QueryProfile profile() {
+        return null;
+    }
+}
@@ -0,0 +1,304 @@
+package neo4j.load.twitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only, memory-mapped binary log of the issued operations, for replaying the exact same workload later.
+ * <p>
+ * Layout: magic, number of operations and their names (in workload order), then one record per operation:
+ * length, operation index, flags (bookmark used), intended start in nanos since the start of the recording,
+ * user name as UUID, encoded parameter. A record length of 0 marks the end, so a log cut off by a crash is still readable.
+ * Threads append concurrently by reserving their range with an atomic position.
+ */
+class OperationLog implements AutoCloseable {
+    private static final int MAGIC = 0x4F504C47; // "OPLG"
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int MAX_SEGMENTS = 1 << 14;
+    static final int BOOKMARK = 1;
+
+    private static final byte NULL = 0, UUID_STRING = 1, STRING = 2, LONG = 3, DOUBLE = 4, BOOLEAN = 5, LIST = 6, MAP = 7;
+
+    private static OperationLog recording;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final AtomicLong position = new AtomicLong();
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final long startNanos = System.nanoTime();
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
+    /**
+     * One operation read from the log.
+     */
+    static class Entry {
+        int operation;
+        int flags;
+        long intended;
+        String name;
+        long hash;
+        Object parameter;
+    }
+
+    private OperationLog(File file, String[] operations) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(1024);
+        header.putInt(MAGIC).putInt(operations.length);
+        for (String operation : operations) putString(header, operation);
+        header.flip();
+        append(header);
+    }
+
+    /**
+     * Starts recording to the file given by the <code>record</code> setting, if any.
+     */
+    static void startRecording(String[] operations) {
+        String file = Settings.get("record", null);
+        if (file == null) return;
+        try {
+            recording = new OperationLog(new File(file), operations);
+            System.out.println("Recording operations to " + file + ".");
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating operation log " + file, e);
+        }
+    }
+
+    static OperationLog recording() {
+        return recording;
+    }
+
+    static void stopRecording() {
+        if (recording != null) recording.close();
+    }
+
+    void record(int operation, boolean bookmark, long intended, long msb, long lsb, Object parameter) {
+        ByteBuffer buffer = buffers.get();
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.putInt(0).put((byte) operation).put((byte) (bookmark ? BOOKMARK : 0))
+                        .putLong(intended - startNanos).putLong(msb).putLong(lsb);
+                put(buffer, parameter);
+                break;
+            } catch (java.nio.BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffers.set(buffer);
+            }
+        }
+        buffer.putInt(0, buffer.position() - Integer.BYTES);
+        buffer.flip();
+        append(buffer);
+    }
+
+    private void append(ByteBuffer buffer) {
+        long offset = position.getAndAdd(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            MappedByteBuffer segment = segment((int) (offset >>> SEGMENT_BITS));
+            int start = (int) (offset & (SEGMENT_SIZE - 1));
+            int length = Math.min(buffer.remaining(), SEGMENT_SIZE - start);
+            ByteBuffer target = segment.duplicate();
+            target.position(start);
+            ByteBuffer source = buffer.duplicate();
+            source.limit(source.position() + length);
+            target.put(source);
+            buffer.position(buffer.position() + length);
+            offset += length;
+        }
+    }
+
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment != null) return segment;
+        synchronized (this) {
+            segment = segments.get(index);
+            if (segment == null) {
+                try {
+                    segment = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << SEGMENT_BITS, SEGMENT_SIZE);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error mapping operation log segment " + index, e);
+                }
+                segments.set(index, segment);
+            }
+            return segment;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (int i = 0; i < MAX_SEGMENTS && segments.get(i) != null; i++) {
+                segments.get(i).force();
+            }
+            // the unused rest of the last segment, fails on platforms that don't allow truncating mapped files
+            channel.truncate(position.get());
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Error closing operation log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sequential reader of a recorded log.
+     */
+    static class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private final String[] operations;
+        private final long size;
+        private long offset;
+        private MappedByteBuffer segment;
+        private long segmentStart = -1;
+        private final ByteBuffer record = ByteBuffer.allocate(64 * 1024);
+
+        Reader(File file) throws IOException {
+            this.channel = new RandomAccessFile(file, "r").getChannel();
+            this.size = channel.size();
+            ByteBuffer header = read(0, (int) Math.min(size, 64 * 1024));
+            if (header.getInt() != MAGIC) throw new IOException(file + " is not an operation log");
+            operations = new String[header.getInt()];
+            for (int i = 0; i < operations.length; i++) operations[i] = getString(header);
+            offset = header.position();
+        }
+
+        String[] operations() {
+            return operations;
+        }
+
+        /**
+         * @return the next entry or null at the end of the log
+         */
+        Entry next() throws IOException {
+            if (offset + Integer.BYTES > size) return null;
+            int length = read(offset, Integer.BYTES).getInt();
+            if (length <= 0 || offset + Integer.BYTES + length > size) return null;
+            ByteBuffer buffer = read(offset + Integer.BYTES, length);
+            offset += Integer.BYTES + length;
+            Entry entry = new Entry();
+            entry.operation = buffer.get();
+            entry.flags = buffer.get();
+            entry.intended = buffer.getLong();
+            long msb = buffer.getLong();
+            long lsb = buffer.getLong();
+            entry.hash = msb ^ lsb;
+            entry.name = new UUID(msb, lsb).toString();
+            entry.parameter = get(buffer);
+            return entry;
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer target = length <= record.capacity() ? record : ByteBuffer.allocate(length);
+            target.clear().limit(length);
+            while (target.hasRemaining()) {
+                long start = position & ~((long) SEGMENT_SIZE - 1);
+                if (start != segmentStart) {
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+                    segmentStart = start;
+                }
+                ByteBuffer source = segment.duplicate();
+                source.position((int) (position - start));
+                int chunk = Math.min(target.remaining(), source.remaining());
+                source.limit(source.position() + chunk);
+                target.put(source);
+                position += chunk;
+            }
+            target.flip();
+            return target;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void put(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(NULL);
+        } else if (value instanceof String) {
+            String string = (String) value;
+            UUID uuid = uuid(string);
+            if (uuid != null) {
+                buffer.put(UUID_STRING).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+            } else {
+                buffer.put(STRING);
+                putString(buffer, string);
+            }
+        } else if (value instanceof Double || value instanceof Float) {
+            buffer.put(DOUBLE).putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            buffer.put(LONG).putLong(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            buffer.put(BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            buffer.put(LIST).putInt(collection.size());
+            for (Object element : collection) put(buffer, element);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            buffer.put(MAP).putInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                putString(buffer, entry.getKey().toString());
+                put(buffer, entry.getValue());
+            }
+        } else {
+            buffer.put(STRING);
+            putString(buffer, value.toString());
+        }
+    }
+
+    private static Object get(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case NULL: return null;
+            case UUID_STRING: return new UUID(buffer.getLong(), buffer.getLong()).toString();
+            case STRING: return getString(buffer);
+            case LONG: return buffer.getLong();
+            case DOUBLE: return buffer.getDouble();
+            case BOOLEAN: return buffer.get() == 1;
+            case LIST:
+                int size = buffer.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) list.add(get(buffer));
+                return list;
+            case MAP:
+                int entries = buffer.getInt();
+                Map<String, Object> map = new HashMap<>(entries * 2);
+                for (int i = 0; i < entries; i++) map.put(getString(buffer), get(buffer));
+                return map;
+            default:
+                throw new IllegalStateException("Unknown value type " + type + " in operation log");
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static UUID uuid(String value) {
+        if (value.length() != 36 || value.charAt(8) != '-') return null;
+        try {
+            UUID uuid = UUID.fromString(value);
+            return uuid.toString().equals(value) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.SingleWriterRecorder;
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the operations of a workload for a single thread with its sessions and latency recorders.
+ * <p>
+ * In batch mode, executions of batchable write operations are queued per operation and written together in one
+ * transaction once <code>batchSize</code> of them are pending or the oldest waited <code>batchTimeout</code> millis.
+ * Their latency is measured from enqueueing (or their intended start) to the commit of the batch.
+ * <p>
+ * Transient failures and deadlocks are retried with the backoff of the {@link RetryPolicy}, if the session's
+ * server went away (e.g. after a leader switch) the session is replaced first. The latency of successful and failed
+ * operations is recorded separately.
+ */
+class OperationRunner implements AutoCloseable {
+    private static final RetryPolicy RETRIES = RetryPolicy.fromSettings();
+
+    private final Workload workload;
+    private final Users users;
+    private final Driver driver;
+    private Session writeSession;
+    private Session readSession;
+    private final Metrics metrics;
+    private final SingleWriterRecorder[] recorders;
+    private final SingleWriterRecorder[] failureRecorders;
+    private final Batch[] batches;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final Map<String, String> replayBookmarks = new HashMap<>();
+
+    private static class Batch {
+        final List<Map<String, Object>> rows;
+        final int[] users;
+        final long[] starts;
+
+        Batch(int size) {
+            rows = new ArrayList<>(size);
+            users = new int[size];
+            starts = new long[size];
+        }
+    }
+
+    private interface Work {
+        void execute(Transaction tx);
+    }
+
+    /**
+     * @param metrics metrics to record latencies and errors in, or null to not record
+     * @param thread index of the recorders, only used by this runner
+     */
+    OperationRunner(Workload workload, Users users, Driver driver, Metrics metrics, int thread) {
+        this(workload, users, driver, metrics, thread, 0, 0);
+    }
+
+    /**
+     * @param batchSize number of executions of a batchable operation written in one transaction, batch mode is off below 2
+     * @param batchTimeoutMillis max millis a queued execution waits for its batch to fill up
+     */
+    OperationRunner(Workload workload, Users users, Driver driver, Metrics metrics, int thread, int batchSize, long batchTimeoutMillis) {
+        this.workload = workload;
+        this.users = users;
+        this.driver = driver;
+        this.writeSession = driver.session(AccessMode.WRITE);
+        this.readSession = driver.session(AccessMode.READ);
+        this.metrics = metrics;
+        this.recorders = metrics == null ? null : metrics.forThread(thread);
+        this.failureRecorders = metrics == null ? null : metrics.failuresForThread(thread);
+        this.batchSize = batchSize;
+        this.batchTimeout = TimeUnit.MILLISECONDS.toNanos(batchTimeoutMillis);
+        this.batches = new Batch[workload.operations.length];
+        for (int i = 0; i < batches.length; i++) {
+            Operation ops = workload.operations[i];
+            if (batchSize > 1 && ops.writes() && ops.batchable()) batches[i] = new Batch(batchSize);
+        }
+    }
+
+    /**
+     * Selects the next operation by weight and runs it.
+     * @param intended intended start time in nanos of an open-loop schedule, latency is measured from it, or 0
+     */
+    Operation next(long intended) {
+        return run(workload.next(ThreadLocalRandom.current()), intended);
+    }
+
+    Operation run(int index, long intended) {
+        Operation ops = workload.operations[index];
+        KeyChooser keys = workload.keys[index];
+        int user = ops.user(users, keys);
+        Object param = ops.parameter(users, user, keys);
+        String name = users.name(user);
+        long start = intended > 0 ? intended : System.nanoTime();
+        String bookmark = ops.ryow() ? users.bookmarkFor(user) : null;
+        OperationLog log = OperationLog.recording();
+        if (log != null) {
+            log.record(index, bookmark != null, start, users.mostSignificantBits(user), users.leastSignificantBits(user), param);
+        }
+        Batch batch = batches[index];
+        if (batch != null) {
+            int pending = batch.rows.size();
+            batch.rows.add(ops.row(name, param));
+            batch.users[pending] = user;
+            batch.starts[pending] = start;
+            if (pending + 1 >= batchSize) flush(index);
+            return ops;
+        }
+        execute(index, name, param, bookmark, start);
+        updateBookmark(session(ops), user, bookmark);
+        return ops;
+    }
+
+    /**
+     * Runs a recorded operation unbatched, bookmarks are kept by user name as the replay of a user stays on one runner.
+     * @param index index of the recorded operation in this workload
+     * @param intended intended start time in nanos of the paced replay, or 0
+     */
+    Operation replay(int index, OperationLog.Entry entry, long intended) {
+        Operation ops = workload.operations[index];
+        long start = intended > 0 ? intended : System.nanoTime();
+        String bookmark = (entry.flags & OperationLog.BOOKMARK) != 0 ? replayBookmarks.get(entry.name) : null;
+        execute(index, entry.name, entry.parameter, bookmark, start);
+        String newBookmark = session(ops).lastBookmark();
+        if (newBookmark != null && !newBookmark.equals(bookmark)) replayBookmarks.put(entry.name, newBookmark);
+        return ops;
+    }
+
+    private void execute(int index, String name, Object param, String bookmark, long start) {
+        Operation ops = workload.operations[index];
+        KeyChooser keys = workload.keys[index];
+        QueryProfile.start(ops.profile());
+        Outcome outcome = transaction(index, ops.writes(), ops.ryow(), bookmark, tx -> ops.execute(tx, name, param));
+        long delta = System.nanoTime() - start;
+        if (QueryProfile.profiled()) {
+            // profiled executions are slower, their latency is reported with the profile
+            ops.profile().latency(delta);
+            if (metrics != null) metrics.outcome(index, outcome);
+            return;
+        }
+        record(index, outcome, delta);
+        keys.executed(ops.writes(), delta);
+    }
+
+    private void record(int index, Outcome outcome, long delta) {
+        if (metrics == null) return;
+        metrics.outcome(index, outcome);
+        (outcome == Outcome.SUCCESS ? recorders : failureRecorders)[index].recordValue(delta);
+    }
+
+    private Session session(Operation ops) {
+        return ops.writes() ? writeSession : readSession;
+    }
+
+    /**
+     * Writes all batches whose oldest execution waited longer than the batch timeout.
+     */
+    void flushExpired() {
+        long now = System.nanoTime();
+        for (int index = 0; index < batches.length; index++) {
+            Batch batch = batches[index];
+            if (batch != null && !batch.rows.isEmpty() && now - batch.starts[0] >= batchTimeout) flush(index);
+        }
+    }
+
+    /**
+     * @return the nano time at which the oldest pending batch expires, or Long.MAX_VALUE if none is pending
+     */
+    long batchDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (Batch batch : batches) {
+            if (batch != null && !batch.rows.isEmpty()) deadline = Math.min(deadline, batch.starts[0] + batchTimeout);
+        }
+        return deadline;
+    }
+
+    /**
+     * Writes all pending batches.
+     */
+    void flush() {
+        for (int index = 0; index < batches.length; index++) {
+            if (batches[index] != null && !batches[index].rows.isEmpty()) flush(index);
+        }
+    }
+
+    private void flush(int index) {
+        Operation ops = workload.operations[index];
+        KeyChooser keys = workload.keys[index];
+        Batch batch = batches[index];
+        Outcome outcome = transaction(index, true, false, null, tx -> ops.executeBatch(tx, batch.rows));
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.rows.size(); i++) {
+            long delta = now - batch.starts[i];
+            record(index, outcome, delta);
+            keys.executed(true, delta);
+            updateBookmark(writeSession, batch.users[i], null);
+        }
+        batch.rows.clear();
+    }
+
+    private Outcome transaction(int index, boolean write, boolean ryow, String bookmark, Work work) {
+        if (metrics == null) return withRetries(index, write, ryow, bookmark, work);
+        metrics.begin();
+        try {
+            return withRetries(index, write, ryow, bookmark, work);
+        } finally {
+            metrics.end();
+        }
+    }
+
+    private Outcome withRetries(int index, boolean write, boolean ryow, String bookmark, Work work) {
+        KeyChooser keys = workload.keys[index];
+        for (int attempt = 0; ; attempt++) {
+            // commit failures are thrown from close
+            try (Transaction tx = begin(index, write ? writeSession : readSession, ryow, bookmark)) {
+                work.execute(tx);
+                tx.success();
+            } catch (Exception e) {
+                Timeline.selected().rolledBack();
+                Outcome outcome = Outcome.of(e);
+                if (outcome == Outcome.DEADLOCK) keys.deadlocked();
+                if (Outcome.expiresSession(e)) renew(write);
+                if (outcome.retryable() && attempt < RETRIES.retries && RETRIES.backoff(attempt)) {
+                    keys.retried();
+                    if (metrics != null) metrics.retry(index);
+                    continue;
+                }
+                System.err.println(workload.operations[index].name() + " " + outcome + ": " + e.getMessage());
+                return outcome;
+            }
+            Timeline.selected().committed();
+            return Outcome.SUCCESS;
+        }
+    }
+
+    /**
+     * Replaces a session whose server went away, the bookmarks are kept per user and not in the session.
+     */
+    private void renew(boolean write) {
+        Session expired = write ? writeSession : readSession;
+        try {
+            expired.close();
+        } catch (Exception e) {
+            // the connection is already gone
+        }
+        if (write) writeSession = driver.session(AccessMode.WRITE);
+        else readSession = driver.session(AccessMode.READ);
+    }
+
+    /**
+     * With a bookmark the driver sends BEGIN synchronously, so the call blocks until the server caught up with it.
+     */
+    private Transaction begin(int index, Session session, boolean ryow, String bookmark) {
+        if (!ryow) return session.beginTransaction();
+        if (bookmark == null || metrics == null) return session.beginTransaction(bookmark);
+        long start = System.nanoTime();
+        Transaction tx = session.beginTransaction(bookmark);
+        metrics.bookmarkWait(index, System.nanoTime() - start);
+        return tx;
+    }
+
+    private void updateBookmark(Session session, int user, String bookmark) {
+        String newBookmark = session.lastBookmark();
+        if (newBookmark!= null && !newBookmark.equals(bookmark)) {
+            users.bookmark(user, newBookmark);
+        }
+    }
+
+    @Override
+    public void close() {
+        writeSession.close();
+        readSession.close();
+    }
+}
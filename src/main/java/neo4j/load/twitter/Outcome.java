@@ -0,0 +1,42 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.driver.v1.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.v1.exceptions.SessionExpiredException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+
+/**
+ * Outcome of executing an operation. Transient failures (e.g. during a leader switch) and deadlocks are retried,
+ * fatal ones (e.g. syntax errors or constraint violations) are not.
+ */
+enum Outcome {
+    SUCCESS, TRANSIENT, DEADLOCK, FATAL;
+
+    private static final String DEADLOCK_CODE = "Neo.TransientError.Transaction.DeadlockDetected";
+    private static final String NOT_A_LEADER = "Neo.ClientError.Cluster.NotALeader";
+    private static final String READ_ONLY = "Neo.ClientError.General.ForbiddenOnReadOnlyDatabase";
+
+    static Outcome of(Exception e) {
+        if (e instanceof TransientException) {
+            return DEADLOCK_CODE.equals(((TransientException) e).code()) ? DEADLOCK : TRANSIENT;
+        }
+        if (expiresSession(e)) return TRANSIENT;
+        return FATAL;
+    }
+
+    boolean retryable() {
+        return this == TRANSIENT || this == DEADLOCK;
+    }
+
+    /**
+     * @return if the session's connection is gone, e.g. the server went away or is no longer the leader
+     */
+    static boolean expiresSession(Exception e) {
+        if (e instanceof SessionExpiredException || e instanceof ServiceUnavailableException) return true;
+        if (e instanceof ClientException) {
+            String code = ((ClientException) e).code();
+            return NOT_A_LEADER.equals(code) || READ_ONLY.equals(code);
+        }
+        return false;
+    }
+}
@@ -9,9 +9,11 @@ import java.util.concurrent.*;
 public class Pool {
     public static ExecutorService createPool(int threads) {
         int queueSize = threads * 25;
-        return new ThreadPoolExecutor(threads / 2, threads, 30L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+        // all threads are core threads, the pool only grows beyond its core size once the queue is full
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
                 new CallerBlocksPolicy());
-//                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     static class CallerBlocksPolicy implements RejectedExecutionHandler {
@@ -0,0 +1,127 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.summary.ProfiledPlan;
+import org.neo4j.driver.v1.summary.ResultSummary;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampled <code>PROFILE</code> of the statement of an operation under load: a fraction (<code>profile.sample</code>,
+ * default 0.01, 0 disables it) of the executions run with <code>PROFILE</code>, and their db hits, rows and the
+ * shape of their plan are summed up for the report. Profiling slows an execution down, so the latencies of the
+ * profiled executions are kept here and out of the latency percentiles of the operation.
+ */
+class QueryProfile {
+    private static final double SAMPLE = Settings.getDouble("profile.sample", 0.01);
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final ThreadLocal<boolean[]> PROFILED = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final String operation;
+    private long samples;
+    private long dbHits;
+    private long maxDbHits;
+    private long rows;
+    private long executions;
+    private long latency;
+    private final Map<String, Integer> shapes = new HashMap<>();
+
+    QueryProfile(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Samples the execution of an operation on the current thread once before its first attempt, so its retries
+     * run with or without <code>PROFILE</code> like the first one.
+     * @param profile profile of the operation, null if it isn't profiled
+     */
+    static void start(QueryProfile profile) {
+        PROFILED.get()[0] = profile != null && SAMPLE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE;
+    }
+
+    /**
+     * @return the statement to run, prefixed with <code>PROFILE</code> if the current execution was sampled
+     */
+    static String sample(String statement) {
+        return PROFILED.get()[0] ? "PROFILE " + statement : statement;
+    }
+
+    /**
+     * @return if the current execution was sampled, which ends it
+     */
+    static boolean profiled() {
+        boolean[] profiled = PROFILED.get();
+        boolean result = profiled[0];
+        profiled[0] = false;
+        return result;
+    }
+
+    /**
+     * Adds the latency of a profiled execution, including its retries.
+     */
+    synchronized void latency(long nanos) {
+        executions++;
+        latency += nanos;
+    }
+
+    /**
+     * Adds the profile of a consumed result, if it was profiled.
+     */
+    synchronized void record(ResultSummary summary) {
+        if (!summary.hasProfile()) return;
+        ProfiledPlan plan = summary.profile();
+        long hits = dbHits(plan);
+        samples++;
+        dbHits += hits;
+        maxDbHits = Math.max(maxDbHits, hits);
+        rows += plan.records();
+        shapes.merge(shape(plan), 1, Integer::sum);
+    }
+
+    private static long dbHits(ProfiledPlan plan) {
+        long hits = plan.dbHits();
+        for (ProfiledPlan child : plan.children()) hits += dbHits(child);
+        return hits;
+    }
+
+    /**
+     * @return the operators of the plan with their children in parentheses, e.g. <code>Top(Expand(All)(NodeIndexSeek))</code>
+     */
+    static String shape(ProfiledPlan plan) {
+        StringBuilder shape = new StringBuilder(plan.operatorType());
+        if (!plan.children().isEmpty()) {
+            shape.append('(');
+            for (int i = 0; i < plan.children().size(); i++) {
+                if (i > 0) shape.append(", ");
+                shape.append(shape(plan.children().get(i)));
+            }
+            shape.append(')');
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Prints the profiles that were sampled, with the most frequent plan shape.
+     */
+    static void report(PrintStream out, Operation[] operations) {
+        boolean header = false;
+        for (Operation ops : operations) {
+            QueryProfile profile = ops.profile();
+            if (profile == null) continue;
+            synchronized (profile) {
+                if (profile.samples == 0) continue;
+                if (!header) {
+                    out.printf("%-30s %10s %12s %12s %10s %10s %7s  %s%n", "Profile", "Samples", "DbHits", "Max DbHits", "Rows", "Mean", "Plans", "Plan");
+                    header = true;
+                }
+                String plan = profile.shapes.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+                out.printf("%-30s %10d %12.1f %12d %10.1f %10.3f %7d  %s%n", profile.operation, profile.samples,
+                        (double) profile.dbHits / profile.samples, profile.maxDbHits, (double) profile.rows / profile.samples,
+                        profile.executions == 0 ? 0 : profile.latency / MILLIS / profile.executions, profile.shapes.size(), plan);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.Driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays an operation log recorded with <code>-Drecord=file</code> against the current database.
+ * <p>
+ * A single reader hands the entries to the threads partitioned by user, so the operations of one user run
+ * in their recorded order on one thread. With a speed above 0 each entry is paced to its recorded start time
+ * divided by the speed and latency is measured from that time, with 0 the entries run as fast as possible.
+ */
+class Replay {
+    private static final OperationLog.Entry END = new OperationLog.Entry();
+
+    private final File file;
+    private final double speed;
+
+    private Replay(File file, double speed) {
+        this.file = file;
+        this.speed = speed;
+    }
+
+    /**
+     * @return the replay configured by the <code>replay</code> and <code>replay.speed</code> settings or null
+     */
+    static Replay fromSettings() {
+        String file = Settings.get("replay", null);
+        if (file == null) return null;
+        String speed = Settings.get("replay.speed", "1");
+        return new Replay(new File(file), speed.equals("max") ? 0 : Double.parseDouble(speed));
+    }
+
+    void run(Driver driver, Workload workload, Users users, Metrics metrics, int threads) throws InterruptedException {
+        try (OperationLog.Reader reader = new OperationLog.Reader(file)) {
+            int[] operations = operations(reader.operations(), workload.names());
+            System.out.println("Replaying " + file + " with " + threads + " threads at " + (speed > 0 ? speed + "x speed." : "max speed."));
+            List<BlockingQueue<OperationLog.Entry>> queues = new ArrayList<>(threads);
+            List<Thread> started = new ArrayList<>(threads);
+            OperationLog.Entry entry = reader.next();
+            long first = entry == null ? 0 : entry.intended;
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                BlockingQueue<OperationLog.Entry> queue = new ArrayBlockingQueue<>(1024);
+                queues.add(queue);
+                int thread = i;
+                Thread replayer = new Thread(() -> replay(thread, driver, workload, users, metrics, queue, operations, start, first));
+                replayer.start();
+                started.add(replayer);
+            }
+            long count = 0;
+            for (; entry != null; entry = reader.next(), count++) {
+                queues.get((int) Math.floorMod(entry.hash, (long) threads)).put(entry);
+            }
+            for (BlockingQueue<OperationLog.Entry> queue : queues) queue.put(END);
+            for (Thread thread : started) thread.join();
+            System.out.println("Replayed " + count + " operations in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " seconds.");
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading operation log " + file, e);
+        }
+    }
+
+    private void replay(int thread, Driver driver, Workload workload, Users users, Metrics metrics,
+                        BlockingQueue<OperationLog.Entry> queue, int[] operations, long start, long first) {
+        try (OperationRunner runner = new OperationRunner(workload, users, driver, metrics, thread)) {
+            OperationLog.Entry entry;
+            while ((entry = queue.take()) != END) {
+                long intended = 0;
+                if (speed > 0) {
+                    intended = start + (long) ((entry.intended - first) / speed);
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                runner.replay(operations[entry.operation], entry, intended);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Maps the recorded operation indexes to the ones of the workload by name.
+     */
+    private static int[] operations(String[] recorded, String[] names) {
+        List<String> current = Arrays.asList(names);
+        int[] result = new int[recorded.length];
+        for (int i = 0; i < recorded.length; i++) {
+            result[i] = current.indexOf(recorded[i]);
+            if (result[i] < 0) {
+                throw new IllegalArgumentException("Recorded operation " + recorded[i] + " is not part of the workload " + current);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package neo4j.load.twitter;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter between retries of transient failures and deadlocks:
+ * the n-th retry waits a random time between half and all of <code>initial * multiplier^n</code>, at most <code>max</code> millis.
+ */
+class RetryPolicy {
+    final int retries;
+    private final long initialMillis;
+    private final long maxMillis;
+    private final double multiplier;
+
+    RetryPolicy(int retries, long initialMillis, long maxMillis, double multiplier) {
+        this.retries = retries;
+        this.initialMillis = initialMillis;
+        this.maxMillis = maxMillis;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Configured by <code>retry.max</code> (default <code>deadlock.retries</code> or 3), <code>retry.backoff</code>
+     * (initial millis, default 10, 0 retries immediately), <code>retry.backoff.max</code> (default 1000)
+     * and <code>retry.backoff.multiplier</code> (default 2, 1 for a fixed backoff).
+     */
+    static RetryPolicy fromSettings() {
+        return fromSettings(Settings.getInt("retry.max", Settings.getInt("deadlock.retries", 3)));
+    }
+
+    /**
+     * With the backoff settings, but the given number of retries.
+     */
+    static RetryPolicy fromSettings(int retries) {
+        return new RetryPolicy(retries, Settings.getLong("retry.backoff", 10), Settings.getLong("retry.backoff.max", 1000),
+                Settings.getDouble("retry.backoff.multiplier", 2));
+    }
+
+    long delayMillis(int attempt) {
+        if (initialMillis <= 0) return 0;
+        long delay = (long) Math.min(maxMillis, initialMillis * Math.pow(multiplier, attempt));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Waits before the given retry.
+     * @return false if interrupted
+     */
+    boolean backoff(int attempt) {
+        long delay = delayMillis(attempt);
+        if (delay == 0) return true;
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package neo4j.load.twitter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Open-loop schedule for a single thread: every operation gets an intended start time on a fixed
+ * grid, independent of how long the previous one took. If the database stalls, the schedule keeps
+ * running and the backlog shows up as latency (measured from the intended start) instead of
+ * silently lowering the offered load (coordinated omission).
+ */
+class Schedule {
+    private volatile long interval;
+    private long next;
+
+    /**
+     * @param opsPerSecond target rate of this thread
+     * @param offset fraction of an interval to shift the start by, so threads don't fire in lock-step
+     */
+    Schedule(double opsPerSecond, double offset) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / opsPerSecond);
+        this.next = System.nanoTime() + (long) (interval * offset);
+    }
+
+    /**
+     * Waits until the next intended start time and returns it, returns immediately if we're behind.
+     */
+    long next() {
+        long intended = next;
+        next += interval;
+        long wait;
+        while ((wait = intended - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        return intended;
+    }
+
+    /**
+     * Like {@link #next()}, but wakes up at the deadline to run the action, e.g. to write batches that expired
+     * while waiting, so the wait for the next start doesn't hold them back.
+     */
+    long next(LongSupplier deadline, Runnable action) {
+        long intended = next;
+        next += interval;
+        long now;
+        while ((now = System.nanoTime()) < intended) {
+            long until = deadline.getAsLong();
+            if (until <= now) {
+                action.run();
+            } else {
+                LockSupport.parkNanos(Math.min(intended, until) - now);
+            }
+        }
+        return intended;
+    }
+
+    long interval() {
+        return interval;
+    }
+
+    /**
+     * Changes the rate for the following operations, can be called from another thread.
+     */
+    void rate(double opsPerSecond) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / opsPerSecond);
+    }
+}
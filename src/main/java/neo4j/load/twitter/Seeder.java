@@ -0,0 +1,437 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.*;
+import org.neo4j.driver.v1.Record;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Seeds a realistic graph before the load test: users, follows with power-law distributed out- and in-degrees
+ * and back-filled tweets with their STREAM relationships, as far as the selected {@link Timeline} fans out tweets.
+ * <p>
+ * Everything is generated deterministically per batch from the random seed, so names don't have to be kept
+ * in memory. Each batch is written in one UNWIND transaction together with a progress marker, after a crash
+ * a run with the same settings skips the finished batches and continues with the rest. The fan-out of the tweets
+ * to the STREAMs of celebrities' followers is too large for one transaction, it is written in transactions of at most
+ * <code>seed.batch</code> relationships, each of which advances the progress marker of its batch.
+ */
+class Seeder {
+    private static final String[] PHASES = {"users", "follows", "tweets", "fanout", "trim"};
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    // concurrent batches following the same celebrities deadlock a lot more often than the load
+    private static final RetryPolicy RETRIES = RetryPolicy.fromSettings(Settings.getInt("seed.retries", 20));
+
+    private final Driver driver;
+    private final int users;
+    private final long follows;
+    private final int tweets;
+    private final int batchSize;
+    private final int threads;
+    private final double exponent;
+    private final double rankExponent;
+    private final int maxFollows;
+    private final double minFollows;
+    private final long seed;
+    private final long now = System.currentTimeMillis();
+
+    /**
+     * @param exponent exponent of the power-law degree distribution P(k) ~ k^-exponent, must be &gt; 2 for a finite mean
+     * @param maxFollows cap of the out-degree of a single user
+     */
+    Seeder(Driver driver, int users, long follows, int tweets, int batchSize, int threads, double exponent, int maxFollows, long seed) {
+        if (exponent <= 2) throw new IllegalArgumentException("The power-law exponent must be > 2 but was " + exponent);
+        this.driver = driver;
+        this.users = users;
+        this.follows = follows;
+        this.tweets = tweets;
+        this.batchSize = batchSize;
+        this.threads = threads;
+        this.exponent = exponent;
+        this.rankExponent = 1 / (exponent - 1);
+        this.maxFollows = Math.min(users - 1, maxFollows);
+        this.minFollows = paretoScale((double) follows / users, exponent - 1, this.maxFollows);
+        this.seed = seed;
+    }
+
+    static Seeder fromSettings(Driver driver) {
+        int users = Settings.getInt("seed.users", 0);
+        if (users <= 0) return null;
+        return new Seeder(driver, users,
+                Settings.getLong("seed.follows", users * 50L),
+                Settings.getInt("seed.tweets", 10),
+                Settings.getInt("seed.batch", 10000),
+                Settings.getInt("seed.threads", Runtime.getRuntime().availableProcessors()),
+                Settings.getDouble("seed.exponent", 2.1),
+                Settings.getInt("seed.maxFollows", 5000),
+                Settings.getLong("seed.random", 42));
+    }
+
+    void seed() throws InterruptedException {
+        try (Session session = driver.session(AccessMode.WRITE)) {
+            session.run("CREATE INDEX ON :SeedProgress(phase)").consume();
+        }
+        double meanFollows = (double) follows / users;
+        // batches are sized in written items (users, relationships, tweets), but cut at user boundaries
+        seed(PHASES[0], batchSize, this::createUsers);
+        seed(PHASES[1], usersPerBatch(meanFollows), this::createFollows);
+        seed(PHASES[2], usersPerBatch(tweets), this::createTweets);
+        if (Timeline.selected().fanOutThreshold() > 0) {
+            seedInSteps(PHASES[3], usersPerBatch(tweets * meanFollows), this::fanOut);
+        }
+        if (Timeline.selected() == Timeline.CAPPED) {
+            seed(PHASES[4], usersPerBatch(tweets * meanFollows), this::trimStreams);
+        }
+    }
+
+    private int usersPerBatch(double itemsPerUser) {
+        return (int) Math.max(1, Math.min(users, batchSize / Math.max(1, itemsPerUser)));
+    }
+
+    interface Batch {
+        /**
+         * Writes the users [from,to) in the transaction and returns the number of written items.
+         */
+        long write(Transaction tx, Random random, int from, int to);
+    }
+
+    private interface Steps {
+        /**
+         * Writes the users [from,to) of the batch in as many transactions as needed, the last one marking the batch
+         * as finished, and returns the number of written items.
+         */
+        long write(Writer writer, int batch, int from, int to);
+    }
+
+    private void seed(String phase, int usersPerBatch, Batch batch) throws InterruptedException {
+        seedInSteps(phase, usersPerBatch, (writer, number, from, to) -> writer.write(tx -> {
+            // a retry starts over with the same random numbers
+            long written = batch.write(tx, random(phase, number), from, to);
+            tx.run("CREATE (:SeedProgress {phase:{phase}, batch:{batch}})", parameters("phase", phase, "batch", number)).consume();
+            return written;
+        }));
+    }
+
+    private void seedInSteps(String phase, int usersPerBatch, Steps steps) throws InterruptedException {
+        int batches = (users + usersPerBatch - 1) / usersPerBatch;
+        BitSet done = finishedBatches(phase);
+        if (done.cardinality() >= batches) {
+            System.out.println("Seeding " + phase + " already finished.");
+            return;
+        }
+        System.out.println("Seeding " + phase + " in " + (batches - done.cardinality()) + " batches with " + threads + " threads, " + done.cardinality() + " batches done before.");
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong items = new AtomicLong();
+        AtomicInteger finished = new AtomicInteger(done.cardinality());
+        CountDownLatch latch = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try (Writer writer = new Writer()) {
+                    int number;
+                    while ((number = next.getAndIncrement()) < batches) {
+                        if (done.get(number)) continue;
+                        int from = number * usersPerBatch;
+                        int to = Math.min(users, from + usersPerBatch);
+                        items.addAndGet(steps.write(writer, number, from, to));
+                        finished.incrementAndGet();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        while (!latch.await(10, TimeUnit.SECONDS)) {
+            report(phase, finished.get(), batches, items.get(), start);
+        }
+        report(phase, finished.get(), batches, items.get(), start);
+        if (finished.get() < batches) {
+            throw new IllegalStateException("Seeding " + phase + " failed, finished " + finished.get() + " of " + batches + " batches, restart to resume.");
+        }
+    }
+
+    private void report(String phase, int finished, int batches, long items, long start) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.printf("Seeding %s: %d of %d batches, %d items in %d s, %d items/s.%n", phase, finished, batches, items, millis / 1000, items * 1000 / millis);
+    }
+
+    /**
+     * Read from the leader, a lagging replica would miss committed batches, which would then be written twice.
+     * Batches written in steps are finished once their marker is done.
+     */
+    private BitSet finishedBatches(String phase) {
+        BitSet done = new BitSet();
+        try (Session session = driver.session(AccessMode.WRITE)) {
+            StatementResult result = session.run("MATCH (p:SeedProgress {phase:{phase}}) WHERE coalesce(p.done, true) RETURN p.batch as batch", parameters("phase", phase));
+            while (result.hasNext()) {
+                done.set(result.next().get("batch").asInt());
+            }
+        }
+        return done;
+    }
+
+    private Random random(String phase, int batch) {
+        return new Random(mix(seed ^ mix(phase.hashCode() * 31L + batch)));
+    }
+
+    /**
+     * Write session of a seeding thread, which retries transient failures and deadlocks like the load does,
+     * e.g. of concurrent batches following the same celebrities.
+     */
+    private class Writer implements AutoCloseable {
+        private Session session = driver.session(AccessMode.WRITE);
+
+        /**
+         * @return the result of the work, after its transaction committed
+         */
+        <T> T write(Function<Transaction, T> work) {
+            for (int attempt = 0; ; attempt++) {
+                T result;
+                try (Transaction tx = session.beginTransaction()) {
+                    result = work.apply(tx);
+                    tx.success();
+                } catch (RuntimeException e) {
+                    Outcome outcome = Outcome.of(e);
+                    if (Outcome.expiresSession(e)) renew();
+                    if (outcome.retryable() && attempt < RETRIES.retries && RETRIES.backoff(attempt)) continue;
+                    throw e;
+                }
+                return result;
+            }
+        }
+
+        private void renew() {
+            close();
+            session = driver.session(AccessMode.WRITE);
+        }
+
+        @Override
+        public void close() {
+            try {
+                session.close();
+            } catch (RuntimeException e) {
+                // the connection is already gone
+            }
+        }
+    }
+
+    private long createUsers(Transaction tx, Random random, int from, int to) {
+        List<String> names = new ArrayList<>(to - from);
+        for (int user = from; user < to; user++) {
+            names.add(name(user));
+        }
+        tx.run("UNWIND {names} as name CREATE (:User {name:name, created:timestamp()})", parameters("names", names)).consume();
+        return names.size();
+    }
+
+    private long createFollows(Transaction tx, Random random, int from, int to) {
+        List<Map<String, Object>> rows = new ArrayList<>(to - from);
+        Set<String> locked = new HashSet<>();
+        long count = 0;
+        for (int user = from; user < to; user++) {
+            int degree = (int) Math.min(maxFollows, Math.round(minFollows / Math.pow(1 - random.nextDouble(), 1 / (exponent - 1))));
+            Set<String> followed = new HashSet<>(degree * 2);
+            for (int i = 0; i < degree; i++) {
+                int target = popularUser(random);
+                if (target != user) followed.add(name(target));
+            }
+            if (followed.isEmpty()) continue;
+            Map<String, Object> row = new HashMap<>(4);
+            row.put("name", name(user));
+            row.put("follows", followed);
+            rows.add(row);
+            locked.add(name(user));
+            locked.addAll(followed);
+            count += followed.size();
+        }
+        lock(tx, locked);
+        tx.run("UNWIND {rows} as row MATCH (u:User {name:row.name}) " +
+                "UNWIND row.follows as name MATCH (f:User {name:name}) " +
+                "CREATE (u)-[:FOLLOWS {time:timestamp()}]->(f)", parameters("rows", rows)).consume();
+        return count;
+    }
+
+    /**
+     * Takes the write locks of the users in the order of their node ids, so concurrent batches that create relationships
+     * to the same celebrities wait for each other instead of deadlocking.
+     */
+    private static void lock(Transaction tx, Collection<String> names) {
+        tx.run("UNWIND {names} as name MATCH (u:User {name:name}) WITH u ORDER BY id(u) SET u.seeding = true REMOVE u.seeding",
+                parameters("names", new ArrayList<>(names))).consume();
+    }
+
+    private long createTweets(Transaction tx, Random random, int from, int to) {
+        List<Map<String, Object>> rows = new ArrayList<>(to - from);
+        for (int user = from; user < to; user++) {
+            int tweetCount = tweets == 0 ? 0 : random.nextInt(tweets * 2 + 1);
+            if (tweetCount == 0) continue;
+            List<Long> times = new ArrayList<>(tweetCount);
+            for (int i = 0; i < tweetCount; i++) {
+                times.add(now - (long) (random.nextDouble() * 30 * DAY));
+            }
+            Map<String, Object> row = new HashMap<>(4);
+            row.put("name", name(user));
+            row.put("times", times);
+            rows.add(row);
+        }
+        // only the authors are locked, each by a single batch
+        return tx.run("UNWIND {rows} as row MATCH (u:User {name:row.name}) " +
+                "UNWIND row.times as time CREATE (u)-[:TWEETS]->(t:Tweet {text:'A Tweet by ' + u.name + ' at ' + time, time:time})",
+                parameters("rows", rows)).consume().counters().nodesCreated();
+    }
+
+    /**
+     * Fans the tweets of the users [from,to) out to STREAM relationships of their followers, in transactions of at most
+     * <code>batchSize</code> relationships: authors with few followers are grouped, the followers of larger authors
+     * are paged in node id order. Each transaction stores the next user and follower in the progress marker, so a
+     * restart continues after the last committed page.
+     */
+    private long fanOut(Writer writer, int batch, int from, int to) {
+        long threshold = Timeline.selected().fanOutThreshold();
+        long[] position = writer.write(tx -> {
+            Record progress = tx.run("OPTIONAL MATCH (p:SeedProgress {phase:{phase}, batch:{batch}}) RETURN p.user as user, p.after as after",
+                    parameters("phase", PHASES[3], "batch", batch)).single();
+            return progress.get("user").isNull() ? new long[]{from, -1} : new long[]{progress.get("user").asLong(), progress.get("after").asLong()};
+        });
+        int user = (int) position[0];
+        long after = position[1];
+        List<String> names = new ArrayList<>(to - user);
+        for (int i = user; i < to; i++) names.add(name(i));
+        Map<String, long[]> sizes = writer.write(tx -> {
+            Map<String, long[]> result = new HashMap<>();
+            tx.run("UNWIND {names} as name MATCH (u:User {name:name}) RETURN name, size((u)-[:TWEETS]->()) as tweets, size((u)<-[:FOLLOWS]-()) as followers",
+                    parameters("names", names)).forEachRemaining(r -> result.put(r.get("name").asString(), new long[]{r.get("tweets").asLong(), r.get("followers").asLong()}));
+            return result;
+        });
+        long written = 0;
+        while (user < to) {
+            long[] size = sizes.getOrDefault(name(user), new long[2]);
+            // STREAM relationships of the user's tweets, none above the threshold
+            long fanOut = size[1] < threshold ? size[0] * size[1] : 0;
+            if (after < 0 && fanOut <= batchSize) {
+                List<String> authors = new ArrayList<>();
+                long rows = 0;
+                do {
+                    size = sizes.getOrDefault(name(user), new long[2]);
+                    fanOut = size[1] < threshold ? size[0] * size[1] : 0;
+                    if (rows + fanOut > batchSize) break;
+                    if (fanOut > 0) authors.add(name(user));
+                    rows += fanOut;
+                } while (++user < to);
+                int next = user;
+                written += writer.write(tx -> {
+                    long created = 0;
+                    if (!authors.isEmpty()) {
+                        lockFollowers(tx, authors);
+                        created = tx.run("UNWIND {names} as name MATCH (u:User {name:name})-[:TWEETS]->(t:Tweet) " +
+                                "MATCH (u)<-[:FOLLOWS]-(f) CREATE (f)-[:STREAM]->(t)", parameters("names", authors)).consume().counters().relationshipsCreated();
+                    }
+                    progress(tx, batch, next, -1, to);
+                    return created;
+                });
+            } else {
+                String author = name(user);
+                int current = user;
+                long first = after;
+                long limit = Math.max(1, batchSize / size[0]);
+                long[] page = writer.write(tx -> {
+                    // FOREACH creates the relationships in the order of the follower ids, which locks them in that order
+                    StatementResult result = tx.run("MATCH (u:User {name:{name}})<-[:FOLLOWS]-(f) WHERE id(f) > {after} " +
+                            "WITH u, f ORDER BY id(f) LIMIT {limit} " +
+                            "WITH u, collect(f) as followers " +
+                            "MATCH (u)-[:TWEETS]->(t:Tweet) " +
+                            "WITH followers, collect(t) as tweets " +
+                            "FOREACH (f IN followers | FOREACH (t IN tweets | CREATE (f)-[:STREAM]->(t))) " +
+                            "RETURN size(followers) as count, id(last(followers)) as last",
+                            parameters("name", author, "after", first, "limit", limit));
+                    List<Record> records = result.list();
+                    long created = result.consume().counters().relationshipsCreated();
+                    long last = records.isEmpty() || records.get(0).get("count").asLong() < limit ? -1 : records.get(0).get("last").asLong();
+                    progress(tx, batch, last < 0 ? current + 1 : current, last, to);
+                    return new long[]{created, last};
+                });
+                written += page[0];
+                after = page[1];
+                if (after < 0) user++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Deletes the STREAM relationships of the users [from,to) beyond the newest <code>timeline.cap</code> tweets, like
+     * the fan-out of {@link Timeline#CAPPED} does. The tweets are locked in the order of their node ids.
+     */
+    private long trimStreams(Transaction tx, Random random, int from, int to) {
+        List<String> names = new ArrayList<>(to - from);
+        for (int user = from; user < to; user++) names.add(name(user));
+        return tx.run("UNWIND {names} as name MATCH (u:User {name:name})-[s:STREAM]->(t:Tweet) " +
+                        "WITH u, s, t ORDER BY t.time DESC " +
+                        "WITH u, collect(s)[{cap}..] as expired " +
+                        "UNWIND expired as s WITH s ORDER BY id(endNode(s)) DELETE s",
+                parameters("names", names, "cap", Timeline.CAP)).consume().counters().relationshipsDeleted();
+    }
+
+    /**
+     * Locks the followers of the authors in the order of their node ids, like {@link #lock}.
+     */
+    private static void lockFollowers(Transaction tx, List<String> authors) {
+        tx.run("UNWIND {names} as name MATCH (:User {name:name})<-[:FOLLOWS]-(f) WITH DISTINCT f ORDER BY id(f) SET f.seeding = true REMOVE f.seeding",
+                parameters("names", authors)).consume();
+    }
+
+    private static void progress(Transaction tx, int batch, int user, long after, int to) {
+        tx.run("MERGE (p:SeedProgress {phase:{phase}, batch:{batch}}) SET p.user = {user}, p.after = {after}, p.done = {done}",
+                parameters("phase", PHASES[3], "batch", batch, "user", user, "after", after, "done", user >= to)).consume();
+    }
+
+    /**
+     * Scale of a Pareto distribution with tail index alpha, so that its mean, truncated at max, is the given mean.
+     * E[min(X,max)] = scale + scale^alpha * (max^(1-alpha) - scale^(1-alpha)) / (1-alpha) grows with the scale.
+     */
+    private static double paretoScale(double mean, double alpha, double max) {
+        double low = 0, high = Math.min(mean, max);
+        for (int i = 0; i < 100; i++) {
+            double scale = (low + high) / 2;
+            double truncatedMean = scale + Math.pow(scale, alpha) * (Math.pow(max, 1 - alpha) - Math.pow(scale, 1 - alpha)) / (1 - alpha);
+            if (truncatedMean < mean) low = scale; else high = scale;
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * User id with rank r drawn from [1,users] with a probability proportional to r^-s, with s = 1/(exponent-1)
+     * the in-degrees follow the same power-law. Low ids become the celebrities with most of the followers.
+     */
+    private int popularUser(Random random) {
+        double oneMinus = 1 - rankExponent;
+        double rank = Math.abs(oneMinus) < 1e-9
+                ? Math.exp(random.nextDouble() * Math.log(users))
+                : Math.pow((Math.pow(users, oneMinus) - 1) * random.nextDouble() + 1, 1 / oneMinus);
+        return Math.max(0, Math.min(users - 1, (int) rank - 1));
+    }
+
+    /**
+     * Deterministic, random (version 4) UUID for the user id.
+     */
+    String name(int user) {
+        long msb = mix(seed + user * 0x9E3779B97F4A7C15L);
+        long lsb = mix(msb ^ user);
+        msb = (msb & ~0xF000L) | 0x4000L;
+        lsb = (lsb & ~(0xC000L << 48)) | (0x8000L << 48);
+        return new UUID(msb, lsb).toString();
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
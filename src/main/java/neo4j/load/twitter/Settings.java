@@ -0,0 +1,36 @@
+package neo4j.load.twitter;
+
+/**
+ * Optional settings, read from system properties (<code>-Drate=1000</code>) and falling back
+ * to environment variables (<code>RATE=1000</code>, dots become underscores) for docker runs.
+ */
+class Settings {
+
+    static String get(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name.replace('.', '_').toUpperCase());
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    static int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    static double getDouble(String name, double defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,123 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Shard-affine load: each thread (or in-flight slot) acts only as the users of its own shard of the user ids, except
+ * a percentage of cross-shard operations that choose from all users (<code>-Dshards.cross=10</code>).
+ * With several percentages (<code>-Dshards.cross=0,10,50,100</code>) each of them runs for a warmup and a measured
+ * period, and the throughput and deadlocks per percentage are reported and written as CSV, to separate the
+ * lock contention on shared acting users from the throughput of the engine. Writes that follow the graph, like the
+ * fan-out, recommendations and seeded follows, still cross shards.
+ */
+class ShardSweep {
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    static class Step {
+        final int cross;
+        final double throughput;
+        final double p50, p99;
+        final long deadlocks;
+        final double deadlockRate;
+        final long errors;
+
+        Step(int cross, double throughput, Histogram latencies, long deadlocks, long errors) {
+            this.cross = cross;
+            this.throughput = throughput;
+            this.p50 = latencies.getValueAtPercentile(50) / MILLIS;
+            this.p99 = latencies.getValueAtPercentile(99) / MILLIS;
+            this.deadlocks = deadlocks;
+            long executions = latencies.getTotalCount() + errors;
+            this.deadlockRate = executions == 0 ? 0 : 100.0 * deadlocks / executions;
+            this.errors = errors;
+        }
+    }
+
+    final int[] ratios;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final String output;
+    private final List<Step> steps = new ArrayList<>();
+
+    ShardSweep(int[] ratios, long warmupMillis, long durationMillis, String output) {
+        this.ratios = ratios;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+        this.output = output;
+    }
+
+    static ShardSweep fromSettings() {
+        String spec = Settings.get("shards.cross", null);
+        if (spec == null) return null;
+        int[] ratios = Arrays.stream(spec.trim().split("\\s*,\\s*")).mapToInt(Integer::parseInt).toArray();
+        for (int ratio : ratios) {
+            if (ratio < 0 || ratio > 100) throw new IllegalArgumentException("Cross-shard percentage " + ratio + " is not in [0,100]");
+        }
+        return new ShardSweep(ratios,
+                TimeUnit.SECONDS.toMillis(Settings.getInt("shards.warmup", 10)),
+                TimeUnit.SECONDS.toMillis(Settings.getInt("shards.duration", 60)),
+                Settings.get("shards.output", "shards.csv"));
+    }
+
+    /**
+     * @return if several percentages are measured one after the other, otherwise the first one applies to the whole run
+     */
+    boolean sweeps() {
+        return ratios.length > 1;
+    }
+
+    /**
+     * @param deadlocks number of deadlocks so far
+     */
+    void run(Users users, CapacitySearch.Phases metrics, LongSupplier deadlocks) throws InterruptedException {
+        for (int cross : ratios) {
+            users.crossShard(cross);
+            Thread.sleep(warmupMillis);
+            metrics.startPhase();
+            long deadlocksBefore = deadlocks.getAsLong();
+            long begin = System.nanoTime();
+            Thread.sleep(durationMillis);
+            Histogram latencies = metrics.phaseLatencies();
+            long errors = metrics.phaseErrors();
+            double seconds = (System.nanoTime() - begin) / (double) TimeUnit.SECONDS.toNanos(1);
+            Step step = new Step(cross, latencies.getTotalCount() / seconds, latencies, deadlocks.getAsLong() - deadlocksBefore, errors);
+            steps.add(step);
+            System.out.printf("Cross-shard %d%%: %.1f ops/s, p50 %.3f p99 %.3f ms, %d deadlocks (%.2f%%), %d errors%n",
+                    cross, step.throughput, step.p50, step.p99, step.deadlocks, step.deadlockRate, step.errors);
+        }
+        report(System.out);
+        write();
+    }
+
+    /**
+     * Prints the throughput of each percentage relative to the first one, e.g. to 0% cross-shard operations.
+     */
+    void report(PrintStream out) {
+        if (steps.isEmpty()) return;
+        double base = steps.get(0).throughput;
+        out.printf("%-12s %12s %10s %10s %10s %10s %10s%n", "Cross-shard", "Throughput", "Relative", "p50", "p99", "Deadlocks", "Rate");
+        for (Step step : steps) {
+            out.printf("%-12s %12.1f %9.1f%% %10.3f %10.3f %10d %9.2f%%%n", step.cross + "%", step.throughput,
+                    base == 0 ? 0 : 100 * step.throughput / base, step.p50, step.p99, step.deadlocks, step.deadlockRate);
+        }
+    }
+
+    private void write() {
+        try (PrintStream out = new PrintStream(output)) {
+            out.println("cross,throughput,p50,p99,deadlocks,deadlockRate,errors");
+            for (Step step : steps) {
+                out.printf("%d,%.1f,%.3f,%.3f,%d,%.3f,%d%n", step.cross, step.throughput, step.p50, step.p99, step.deadlocks, step.deadlockRate, step.errors);
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("Error writing " + output + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementRunner;
+import org.neo4j.driver.v1.summary.SummaryCounters;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Data model of the tweet stream, selected with <code>-Dtimeline=FANOUT_WRITE|FANOUT_READ|HYBRID|CAPPED</code>:
+ * <ul>
+ * <li>FANOUT_WRITE: a tweet creates a STREAM relationship for every follower, reading follows STREAM (default)</li>
+ * <li>FANOUT_READ: a tweet is only linked to its author, reading collects the tweets of all followed users</li>
+ * <li>HYBRID: like FANOUT_WRITE, but authors with at least <code>timeline.threshold</code> followers are not fanned out
+ * and their tweets are pulled when reading</li>
+ * <li>CAPPED: like FANOUT_WRITE, but each stream is trimmed to the newest <code>timeline.cap</code> tweets</li>
+ * </ul>
+ * The write amplification (relationships created and deleted per tweet) is recorded per strategy.
+ */
+enum Timeline {
+    FANOUT_WRITE {
+        long fanOutThreshold() {
+            return Long.MAX_VALUE;
+        }
+
+        String fanOut() {
+            return "WITH (u),(t) " +
+                    "MATCH (u)<-[:FOLLOWS]-(f)\n" +
+                    "CREATE (f)-[:STREAM]->(t);";
+        }
+    }, FANOUT_READ {
+        long fanOutThreshold() {
+            return 0;
+        }
+
+        String fanOut() {
+            return "";
+        }
+
+        int read(StatementRunner runner, String name) {
+            return count(runner.run("MATCH (u:User {name:{name}})-[:FOLLOWS]->(f)-[:TWEETS]->(t:Tweet)\n" +
+                    "RETURN t.text, t.time\n" +
+                    "ORDER BY t.time DESC LIMIT 10;", parameters("name", name)));
+        }
+    }, HYBRID {
+        long fanOutThreshold() {
+            return THRESHOLD;
+        }
+
+        String fanOut() {
+            return "WITH (u),(t) WHERE size((u)<-[:FOLLOWS]-()) < {threshold}\n" +
+                    "MATCH (u)<-[:FOLLOWS]-(f)\n" +
+                    "CREATE (f)-[:STREAM]->(t);";
+        }
+
+        int read(StatementRunner runner, String name) {
+            return count(runner.run("MATCH (u:User {name:{name}})\n" +
+                    "OPTIONAL MATCH (u)-[:STREAM]->(s:Tweet)\n" +
+                    "WITH u, s ORDER BY s.time DESC LIMIT 10\n" +
+                    "WITH u, collect(s) as stream\n" +
+                    "OPTIONAL MATCH (u)-[:FOLLOWS]->(c) WHERE size((c)<-[:FOLLOWS]-()) >= {threshold}\n" +
+                    "OPTIONAL MATCH (c)-[:TWEETS]->(t:Tweet)\n" +
+                    "WITH stream, t ORDER BY t.time DESC LIMIT 10\n" +
+                    "WITH stream, collect(t) as pulled\n" +
+                    "UNWIND stream + pulled as tweet\n" +
+                    "WITH DISTINCT tweet\n" +
+                    "RETURN tweet.text, tweet.time\n" +
+                    "ORDER BY tweet.time DESC LIMIT 10;", parameters("name", name, "threshold", THRESHOLD)));
+        }
+    }, CAPPED {
+        long fanOutThreshold() {
+            return Long.MAX_VALUE;
+        }
+
+        String fanOut() {
+            return "WITH (u),(t) " +
+                    "MATCH (u)<-[:FOLLOWS]-(f)\n" +
+                    "CREATE (f)-[:STREAM]->(t)\n" +
+                    "WITH DISTINCT f WHERE size((f)-[:STREAM]->()) > {cap}\n" +
+                    "MATCH (f)-[s:STREAM]->(old:Tweet)\n" +
+                    "WITH f, s, old ORDER BY old.time DESC\n" +
+                    "WITH f, collect(s)[{cap}..] as expired\n" +
+                    "FOREACH (s IN expired | DELETE s);";
+        }
+    };
+
+    static final long THRESHOLD = Settings.getLong("timeline.threshold", 1000);
+    static final long CAP = Settings.getLong("timeline.cap", 100);
+    private static final Timeline SELECTED = valueOf(Settings.get("timeline", FANOUT_WRITE.name()).toUpperCase());
+
+    private final Recorder amplification = new Recorder(3);
+    // relationships and tweets of the current transaction of the thread, recorded once it committed
+    private final ThreadLocal<long[]> pending = ThreadLocal.withInitial(() -> new long[2]);
+
+    static Timeline selected() {
+        return SELECTED;
+    }
+
+    /**
+     * Authors with at least this many followers don't get their tweets fanned out to STREAM relationships.
+     */
+    abstract long fanOutThreshold();
+
+    /**
+     * Statement continuing after the tweet <code>t</code> of user <code>u</code> was created.
+     */
+    abstract String fanOut();
+
+    SummaryCounters tweet(StatementRunner runner, String name, String text) {
+        return runner.run("MATCH (u:User {name:{name}})\n" +
+                        "CREATE (u)-[:TWEETS]->(t:Tweet {text:{text},time:timestamp()})\n" +
+                        fanOut(),
+                parameters("name", name, "text", text, "threshold", THRESHOLD, "cap", CAP)).consume().counters();
+    }
+
+    /**
+     * Creates the tweets of the batch rows with <code>name</code> and <code>text</code> in one statement.
+     */
+    SummaryCounters tweets(StatementRunner runner, List<Map<String, Object>> batch) {
+        return runner.run("UNWIND {batch} as row\n" +
+                        "MATCH (u:User {name:row.name})\n" +
+                        "CREATE (u)-[:TWEETS]->(t:Tweet {text:row.text,time:timestamp()})\n" +
+                        fanOut(),
+                parameters("batch", batch, "threshold", THRESHOLD, "cap", CAP)).consume().counters();
+    }
+
+    int read(StatementRunner runner, String name) {
+        return count(runner.run("MATCH (u:User {name:{name}})-[:STREAM]->(t:Tweet)\n" +
+                "RETURN t.text, t.time\n" +
+                "ORDER BY t.time DESC LIMIT 10;", parameters("name", name)));
+    }
+
+    /**
+     * Counts the write amplification of the tweets of the current transaction, which is only recorded by
+     * {@link #committed()}, so retried transactions aren't counted twice.
+     */
+    void recordTweets(SummaryCounters counters, int tweets) {
+        long[] counts = pending.get();
+        counts[0] += counters.relationshipsCreated() + counters.relationshipsDeleted();
+        counts[1] += tweets;
+    }
+
+    void committed() {
+        long[] counts = pending.get();
+        if (counts[1] > 0) amplification.recordValueWithCount(counts[0] / counts[1], counts[1]);
+        rolledBack();
+    }
+
+    void rolledBack() {
+        long[] counts = pending.get();
+        counts[0] = 0;
+        counts[1] = 0;
+    }
+
+    private static int count(StatementResult result) {
+        int count = 0;
+        while (result.hasNext()) {
+            result.next();
+            count++;
+        }
+        return count;
+    }
+
+    void report(PrintStream out) {
+        Histogram histogram = amplification.getIntervalHistogram();
+        out.printf("Timeline %s: %d tweets, write amplification (relationships per tweet) mean %.1f p50 %d p99 %d max %d%n", name(),
+                histogram.getTotalCount(), histogram.getMean(), histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(99), histogram.getMaxValue());
+    }
+}
@@ -0,0 +1,185 @@
+package neo4j.load.twitter;
+
+import org.neo4j.driver.v1.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Loads the user names at startup: from a memory-mapped local snapshot if it matches the number of users
+ * in the database, otherwise streamed in pages of node ids up to the highest user id by several sessions in parallel, after which
+ * the snapshot is rewritten for the next run. The pages are added in node id order, whichever session loaded them first,
+ * so every process that loads the same database gets the same ids for the same names, which keeps the partitions
+ * of workers disjoint.
+ * <p>
+ * Snapshot format: magic, user count, then most and least significant bits of each UUID name, all longs.
+ */
+class UserLoader {
+    private static final long MAGIC = 0x5457495454455255L; // "TWITTERU"
+    private static final int HEADER = 2 * Long.BYTES;
+    private static final int USERS_PER_MAPPING = 1 << 25;
+
+    private final Driver driver;
+    private final File snapshot;
+    private final int threads;
+    private final int pageSize;
+
+    UserLoader(Driver driver, File snapshot, int threads, int pageSize) {
+        this.driver = driver;
+        this.snapshot = snapshot;
+        this.threads = threads;
+        this.pageSize = pageSize;
+    }
+
+    static UserLoader fromSettings(Driver driver) {
+        String snapshot = Settings.get("snapshot", "users.snapshot");
+        return new UserLoader(driver, snapshot.equals("none") ? null : new File(snapshot),
+                Settings.getInt("load.threads", Runtime.getRuntime().availableProcessors()),
+                Settings.getInt("load.pageSize", 100000));
+    }
+
+    void load(Users users) throws InterruptedException {
+        long start = System.nanoTime();
+        long count;
+        try (Session session = driver.session(AccessMode.READ)) {
+            // answered from the count store
+            count = session.run("MATCH (:User) RETURN count(*) as c").single().get(0).asLong();
+        }
+        if (count == 0) return;
+        String source;
+        if (readSnapshot(users, count)) {
+            source = "snapshot " + snapshot;
+        } else {
+            loadPaged(users, count, maxId());
+            writeSnapshot(users);
+            source = "database";
+        }
+        System.out.println("Loaded " + users.size() + " names from " + source + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+    }
+
+    /**
+     * Highest node id of a user, so that users behind deleted or other nodes aren't missed.
+     */
+    private long maxId() {
+        try (Session session = driver.session(AccessMode.READ)) {
+            return session.run("MATCH (u:User) RETURN max(id(u)) as id").single().get(0).asLong();
+        }
+    }
+
+    /**
+     * Pages that were loaded out of order, until all pages before them are added.
+     */
+    private static class Pages {
+        private final Users users;
+        private final Map<Long, long[]> pending = new HashMap<>();
+        private long next;
+
+        Pages(Users users) {
+            this.users = users;
+        }
+
+        synchronized void add(long page, long[] bits) {
+            pending.put(page, bits);
+            for (long[] ready; (ready = pending.remove(next)) != null; next++) {
+                users.addAll(ready, ready.length / 2);
+            }
+        }
+    }
+
+    private void loadPaged(Users users, long count, long maxId) throws InterruptedException {
+        AtomicLong nextId = new AtomicLong();
+        AtomicLong seen = new AtomicLong();
+        Pages pages = new Pages(users);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                long[] bits = new long[pageSize * 2];
+                try (Session session = driver.session(AccessMode.READ)) {
+                    long from;
+                    while (seen.get() < count && (from = nextId.getAndAdd(pageSize)) <= maxId) {
+                        StatementResult result = session.run("UNWIND range({from},{to}) as id MATCH (u) WHERE id(u) = id AND u:User RETURN u.name as name ORDER BY id",
+                                parameters("from", from, "to", from + pageSize - 1));
+                        int found = 0;
+                        while (result.hasNext()) {
+                            String name = result.next().get(0).asString();
+                            try {
+                                UUID uuid = UUID.fromString(name);
+                                bits[found * 2] = uuid.getMostSignificantBits();
+                                bits[found * 2 + 1] = uuid.getLeastSignificantBits();
+                                found++;
+                            } catch (IllegalArgumentException e) {
+                                // not one of our names, still counted as seen
+                                seen.incrementAndGet();
+                            }
+                        }
+                        pages.add(from / pageSize, Arrays.copyOf(bits, found * 2));
+                        seen.addAndGet(found);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        if (seen.get() < count) {
+            throw new IllegalStateException("Loaded only " + seen.get() + " of " + count + " users up to node id " + maxId);
+        }
+    }
+
+    private boolean readSnapshot(Users users, long count) {
+        if (snapshot == null || !snapshot.isFile()) return false;
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() < HEADER) return false;
+            LongBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).asLongBuffer();
+            long snapshotCount = header.get(1);
+            if (header.get(0) != MAGIC || snapshotCount != count || channel.size() != HEADER + snapshotCount * 2 * Long.BYTES) {
+                System.out.println("Snapshot " + snapshot + " is stale, it has " + snapshotCount + " instead of " + count + " users.");
+                return false;
+            }
+            for (long offset = 0; offset < snapshotCount; offset += USERS_PER_MAPPING) {
+                int length = (int) Math.min(USERS_PER_MAPPING, snapshotCount - offset);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + offset * 2 * Long.BYTES, length * 2L * Long.BYTES);
+                users.addAll(mapped.asLongBuffer(), length);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error reading snapshot " + snapshot + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void writeSnapshot(Users users) {
+        if (snapshot == null) return;
+        int count = users.size();
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(HEADER + count * 2L * Long.BYTES);
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER).asLongBuffer().put(0).put(-1);
+            for (int offset = 0; offset < count; offset += USERS_PER_MAPPING) {
+                int length = Math.min(USERS_PER_MAPPING, count - offset);
+                LongBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + offset * 2L * Long.BYTES, length * 2L * Long.BYTES).asLongBuffer();
+                for (int user = offset; user < offset + length; user++) {
+                    buffer.put(users.mostSignificantBits(user)).put(users.leastSignificantBits(user));
+                }
+            }
+            // header last, an interrupted write leaves an invalid snapshot
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER).asLongBuffer().put(MAGIC).put(count);
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot " + snapshot + ": " + e.getMessage());
+        }
+    }
+}
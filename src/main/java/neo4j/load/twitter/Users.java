@@ -1,55 +1,309 @@
 package neo4j.load.twitter;
 
+import java.nio.LongBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Registry of the user names, addressed by an int id in creation order.
+ * Names are UUIDs, stored as pairs of longs in chunked arrays that are appended to without locks or copying,
+ * bookmarks are kept in chunked arrays indexed by the same id.
+ * A {@link #shard} is a view on the same names that picks the acting users from a subset of the ids.
+ *
  * @author mh
  * @since 30.11.16
  */
 class Users {
-    private final ConcurrentHashMap<String, String> bookmarks = new ConcurrentHashMap<>();
-    private final List<String> names = new CopyOnWriteArrayList<>();
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
 
-    String randomUser() {
-        return names.get(random().nextInt(names.size()));
+    // two longs (most and least significant bits) per user
+    private final AtomicReferenceArray<long[]> names;
+    private final AtomicReferenceArray<String[]> bookmarks;
+    // one bit per id whose name is written, size advances over them
+    private final AtomicReferenceArray<AtomicLongArray> written;
+    private final AtomicInteger reserved;
+    // ids below size are fully written and can be sampled
+    private final AtomicInteger size;
+    // the acting users are sampled from the ids with id % partitions == partition
+    private int partition = 0;
+    private int partitions = 1;
+    // within the partition a shard samples the ids with id / partitions % shards == shard, except cross percent of them
+    private final int shard;
+    private final int shards;
+    private final AtomicInteger cross;
+
+    Users() {
+        this.names = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.bookmarks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.written = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.reserved = new AtomicInteger();
+        this.size = new AtomicInteger();
+        this.cross = new AtomicInteger();
+        this.shard = 0;
+        this.shards = 1;
+    }
+
+    private Users(Users users, int shard, int shards) {
+        this.names = users.names;
+        this.bookmarks = users.bookmarks;
+        this.written = users.written;
+        this.reserved = users.reserved;
+        this.size = users.size;
+        this.cross = users.cross;
+        this.partition = users.partition;
+        this.partitions = users.partitions;
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * Restricts the acting users to every count-th id starting at index, e.g. for one of several worker processes.
+     * The key distributions apply within the partition.
+     */
+    void partition(int index, int count) {
+        this.partition = index;
+        this.partitions = count;
+    }
+
+    /**
+     * View on the same users whose acting users are the ids of one of shards within the partition, so threads with
+     * different shards don't act as the same users. The users they write to by following the graph, e.g. the followers
+     * of a fan-out, are still from all shards. Names created by the view are added for all of them.
+     */
+    Users shard(int shard, int shards) {
+        return new Users(this, shard, shards);
+    }
+
+    /**
+     * Sets the percentage of the users that all shards choose from the whole partition instead of their shard.
+     */
+    void crossShard(int percent) {
+        cross.set(percent);
+    }
+
+    int randomUser() {
+        return randomUser(null);
+    }
+
+    /**
+     * The rank is always drawn over all ids and then mapped to the id of the same rank order in the partition or
+     * shard, so a distribution only ever sees the size of the whole registry.
+     * @param keys distribution of the users, uniform if null
+     */
+    int randomUser(KeyChooser keys) {
+        ThreadLocalRandom random = random();
+        int ids = size.get();
+        if (ids == 0) throw new IllegalStateException("No users to choose from");
+        int residue = partition;
+        int modulus = partitions;
+        if (shards > 1 && random.nextInt(100) >= cross.get()) {
+            residue = partition + partitions * shard;
+            modulus = partitions * shards;
+        }
+        if (modulus == 1 || ids <= residue) return keys == null ? random.nextInt(ids) : keys.next(ids, random);
+        int count = (ids - residue + modulus - 1) / modulus;
+        int index = keys == null ? random.nextInt(count) : Math.min(keys.next(ids, random) / modulus, count - 1);
+        return index * modulus + residue;
+    }
+
+    String name(int user) {
+        long[] chunk = names.get(user >>> CHUNK_BITS);
+        int offset = (user & CHUNK_MASK) << 1;
+        return new UUID(chunk[offset], chunk[offset + 1]).toString();
+    }
+
+    long mostSignificantBits(int user) {
+        return names.get(user >>> CHUNK_BITS)[(user & CHUNK_MASK) << 1];
+    }
+
+    long leastSignificantBits(int user) {
+        return names.get(user >>> CHUNK_BITS)[((user & CHUNK_MASK) << 1) + 1];
     }
 
-    String bookmark(String user, String bookmark) {
-        return bookmark != null ? bookmarks.put(user, bookmark) : bookmarks.get(user);
+    void bookmark(int user, String bookmark) {
+        bookmarkChunk(user)[user & CHUNK_MASK] = bookmark;
     }
 
-    String bookmarkFor(String user) {
-        return bookmarks.get(user);
+    String bookmarkFor(int user) {
+        String[] chunk = bookmarks.get(user >>> CHUNK_BITS);
+        return chunk == null ? null : chunk[user & CHUNK_MASK];
     }
 
+    /**
+     * @return the names of up to count distinct random users
+     */
     Collection<String> randomUsers(int count) {
+        return randomUsers(count, null);
+    }
+
+    /**
+     * @param keys distribution of the users, uniform if null
+     */
+    Collection<String> randomUsers(int count, KeyChooser keys) {
         ThreadLocalRandom random = random();
-        Set<String> result = new HashSet<>(count);
-        int max = names.size();
+        int max = size.get();
+        if (max == 0) return Collections.emptyList();
+        int[] ids = new int[count];
+        int found = 0;
         for (int i = 0; i < count; i++) {
-            result.add(names.get(random.nextInt(max)));
+            int id = shards > 1 ? randomUser(keys) : keys == null ? random.nextInt(max) : keys.next(max, random);
+            if (!contains(ids, found, id)) ids[found++] = id;
+        }
+        List<String> result = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            result.add(name(ids[i]));
         }
         return result;
     }
 
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) return true;
+        }
+        return false;
+    }
+
     private ThreadLocalRandom random() {
         return ThreadLocalRandom.current();
     }
 
+    /**
+     * Creates a new random (version 4) UUID without the contention of the SecureRandom of UUID.randomUUID().
+     * The id is the next one of the whole registry, also for a shard: ids are only sampled below the first one
+     * not written yet, so ids left free for other shards or partitions would hide all later users.
+     * @return the id of the new user
+     */
+    int newUser() {
+        ThreadLocalRandom random = random();
+        long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long lsb = (random.nextLong() & ~(0xC000L << 48)) | (0x8000L << 48);
+        int user = reserved.getAndIncrement();
+        set(user, msb, lsb);
+        publish(user, 1);
+        return user;
+    }
+
     String newName() {
-        String name = UUID.randomUUID().toString();
-        names.add(name);
-        return name;
+        return name(newUser());
+    }
+
+    /**
+     * Adds the given UUID names, names that are no UUIDs are skipped.
+     * @return the number of added names
+     */
+    int addAll(List<String> names) {
+        long[] bits = new long[names.size() * 2];
+        int count = 0;
+        for (String name : names) {
+            try {
+                UUID uuid = UUID.fromString(name);
+                bits[count * 2] = uuid.getMostSignificantBits();
+                bits[count * 2 + 1] = uuid.getLeastSignificantBits();
+                count++;
+            } catch (IllegalArgumentException e) {
+                // not one of our names
+            }
+        }
+        return addAll(bits, count);
+    }
+
+    /**
+     * Adds count names given as pairs of most and least significant bits.
+     */
+    int addAll(long[] bits, int count) {
+        if (count == 0) return 0;
+        int first = reserved.getAndAdd(count);
+        for (int i = 0; i < count; i++) {
+            set(first + i, bits[i * 2], bits[i * 2 + 1]);
+        }
+        publish(first, count);
+        return count;
+    }
+
+    /**
+     * Adds count names read from the buffer as pairs of most and least significant bits, copied straight into the chunks.
+     */
+    int addAll(LongBuffer bits, int count) {
+        if (count == 0) return 0;
+        int first = reserved.getAndAdd(count);
+        for (int user = first; user < first + count; ) {
+            int length = Math.min(CHUNK_SIZE - (user & CHUNK_MASK), first + count - user);
+            bits.get(nameChunk(user), (user & CHUNK_MASK) << 1, length << 1);
+            user += length;
+        }
+        publish(first, count);
+        return count;
+    }
+
+    private void set(int user, long msb, long lsb) {
+        long[] chunk = nameChunk(user);
+        int offset = (user & CHUNK_MASK) << 1;
+        chunk[offset] = msb;
+        chunk[offset + 1] = lsb;
+    }
+
+    /**
+     * Marks the ids as written and advances the size over all written ids that follow it, without waiting for
+     * concurrent appends of lower ids: the writer that fills the gap publishes the ids written after it.
+     */
+    private void publish(int first, int count) {
+        for (int user = first; user < first + count; ) {
+            AtomicLongArray chunk = writtenChunk(user);
+            int word = (user & CHUNK_MASK) >>> 6;
+            int bits = Math.min(64 - (user & 63), first + count - user);
+            long mask = (bits == 64 ? -1L : (1L << bits) - 1) << (user & 63);
+            chunk.accumulateAndGet(word, mask, (a, b) -> a | b);
+            user += bits;
+        }
+        for (int current = size.get(); isWritten(current); current = size.get()) {
+            int end = current + 1;
+            while (isWritten(end)) end++;
+            size.compareAndSet(current, end);
+        }
+    }
+
+    private boolean isWritten(int user) {
+        AtomicLongArray chunk = written.get(user >>> CHUNK_BITS);
+        return chunk != null && (chunk.get((user & CHUNK_MASK) >>> 6) & (1L << (user & 63))) != 0;
     }
 
-    void addAll(List<String> names) {
-        this.names.addAll(names);
+    private AtomicLongArray writtenChunk(int user) {
+        int index = user >>> CHUNK_BITS;
+        AtomicLongArray chunk = written.get(index);
+        if (chunk == null) {
+            written.compareAndSet(index, null, new AtomicLongArray(CHUNK_SIZE / 64));
+            chunk = written.get(index);
+        }
+        return chunk;
+    }
+
+    private long[] nameChunk(int user) {
+        int index = user >>> CHUNK_BITS;
+        long[] chunk = names.get(index);
+        if (chunk == null) {
+            names.compareAndSet(index, null, new long[CHUNK_SIZE * 2]);
+            chunk = names.get(index);
+        }
+        return chunk;
+    }
+
+    private String[] bookmarkChunk(int user) {
+        int index = user >>> CHUNK_BITS;
+        String[] chunk = bookmarks.get(index);
+        if (chunk == null) {
+            bookmarks.compareAndSet(index, null, new String[CHUNK_SIZE]);
+            chunk = bookmarks.get(index);
+        }
+        return chunk;
     }
 
     int size() {
-        return names.size();
+        return size.get();
     }
 }
@@ -0,0 +1,159 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+
+/**
+ * The worker side of the {@link Coordinator} protocol, enabled with <code>-Dworker=host:port</code>.
+ * The worker gets its share of the rate and its partition of the user ids, reports ready after its initialization,
+ * starts when told to and then follows the commands of the coordinator until it's stopped.
+ */
+class Worker implements AutoCloseable {
+    final int index;
+    final int count;
+    final double rate;
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    private Worker(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new PrintWriter(socket.getOutputStream(), true);
+        send("HELLO");
+        String[] assign = expect("ASSIGN");
+        this.index = Integer.parseInt(assign[1]);
+        this.count = Integer.parseInt(assign[2]);
+        this.rate = Double.parseDouble(assign[3]);
+    }
+
+    /**
+     * Connects to the coordinator given by the <code>worker</code> setting and waits for the assignment.
+     * @return the worker or null if this process isn't one
+     */
+    static Worker fromSettings() {
+        String address = Settings.get("worker", null);
+        if (address == null) return null;
+        String[] parts = address.split(":");
+        try {
+            Worker worker = new Worker(new Socket(parts[0], Integer.parseInt(parts[1])));
+            System.out.println("Worker " + worker.index + " of " + worker.count + " with a rate of " + worker.rate + " ops/s.");
+            return worker;
+        } catch (IOException e) {
+            throw new RuntimeException("Error connecting to coordinator " + address, e);
+        }
+    }
+
+    /**
+     * Reports that the worker is initialized and waits for the start of the load.
+     */
+    void ready() {
+        send("READY");
+        expect("START");
+    }
+
+    /**
+     * Follows the commands of the coordinator until it's stopped.
+     * @param load applies the share of a capacity search step, null if not searching
+     */
+    void serve(CapacitySearch.Load load, Metrics metrics) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] command = line.split(" ");
+                switch (command[0]) {
+                    case "LEVEL":
+                        if (load != null) load.level(Integer.parseInt(command[1]));
+                        send("OK");
+                        break;
+                    case "PHASE":
+                        metrics.startPhase();
+                        send("OK");
+                        break;
+                    case "LATENCIES":
+                        Histogram latencies = metrics.phaseLatencies();
+                        send("LATENCIES " + metrics.phaseErrors() + " " + encode(latencies));
+                        break;
+                    case "STOP":
+                        return;
+                    default:
+                        throw new IllegalStateException("Unknown command from coordinator: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Lost coordinator: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serves the coordinator in the background, calling stop when it's told to stop or the coordinator is gone.
+     */
+    void serveInBackground(Metrics metrics, Runnable stop) {
+        Thread thread = new Thread(() -> {
+            serve(null, metrics);
+            stop.run();
+        }, "worker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reports the end of the run with the histogram log and the errors and retries per operation.
+     */
+    void done(String histogramLog, String[] operations, Metrics metrics) {
+        StringBuilder sb = new StringBuilder("DONE ").append(histogramLog == null ? "-" : histogramLog);
+        for (int op = 0; op < operations.length; op++) {
+            sb.append(' ').append(operations[op]).append('=').append(metrics.errors(op)).append(':').append(metrics.retries(op));
+        }
+        send(sb.toString());
+    }
+
+    private synchronized void send(String line) {
+        out.println(line);
+    }
+
+    private String[] expect(String command) {
+        try {
+            String line = in.readLine();
+            if (line == null || !line.startsWith(command)) {
+                throw new IllegalStateException("Expected " + command + " from coordinator, got " + line);
+            }
+            return line.split(" ");
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading from coordinator", e);
+        }
+    }
+
+    static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+    }
+
+    static Histogram decode(String encoded) {
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)), 0);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid histogram from worker", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the coordinator is already gone
+        }
+    }
+}
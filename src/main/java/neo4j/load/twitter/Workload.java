@@ -0,0 +1,169 @@
+package neo4j.load.twitter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The operations of a load test with their weights. Either the built-in Twitter mix or defined in a properties file
+ * (<code>-Dworkload=file</code>):
+ * <pre>
+ * operations=TWEET,READ_TWEETS,USER_PROFILE
+ * TWEET.weight=10
+ * READ_TWEETS.weight=80
+ * USER_PROFILE.weight=10
+ * USER_PROFILE.cypher=MATCH (u:User {name:{name}})-[:TWEETS]-&gt;(t) RETURN count(*) as tweets
+ * USER_PROFILE.writes=false
+ * USER_PROFILE.ryow=false
+ * USER_PROFILE.user=random
+ * USER_PROFILE.param.limit=int:1:100
+ * </pre>
+ * Write operations can define a <code>batch</code> statement that gets a list of rows with <code>name</code>
+ * and the parameters as <code>{batch}</code>, used in batch mode.
+ * Operations without cypher refer to the built-in {@link LoadGenerator.Operations}.
+ * If <code>rate.OPERATION</code> settings are given, they replace the weights and their sum is the target rate.
+ * The users of each operation are chosen by the {@link KeyChooser} of <code>keys.OPERATION</code> or <code>keys</code>.
+ * Cypher operations can define alternative statements, e.g. <code>USER_PROFILE.variant.count=...</code>,
+ * see {@link #withVariants()}.
+ */
+class Workload {
+    final Operation[] operations;
+    final double[] weights;
+    final double rate;
+    final KeyChooser[] keys;
+    private final AliasTable table;
+
+    Workload(Operation[] operations, double[] weights, double rate) {
+        this(operations, weights, rate, keys(operations));
+    }
+
+    Workload(Operation[] operations, double[] weights, double rate, KeyChooser[] keys) {
+        this.operations = operations;
+        this.weights = weights;
+        this.rate = rate;
+        this.keys = keys;
+        this.table = new AliasTable(weights);
+    }
+
+    /**
+     * Key distribution per operation from <code>keys.OPERATION</code> or <code>keys</code>,
+     * operations with the same spec share a chooser and its statistics.
+     */
+    private static KeyChooser[] keys(Operation[] operations) {
+        Map<String, KeyChooser> choosers = new HashMap<>();
+        String defaultSpec = Settings.get("keys", "uniform");
+        return Arrays.stream(operations)
+                .map(ops -> choosers.computeIfAbsent(Settings.get("keys." + ops.name(), defaultSpec), KeyChooser::parse))
+                .toArray(KeyChooser[]::new);
+    }
+
+    Collection<KeyChooser> distinctKeys() {
+        return new LinkedHashSet<>(Arrays.asList(keys));
+    }
+
+    static Workload defaults() {
+        LoadGenerator.Operations[] operations = LoadGenerator.Operations.values();
+        return new Workload(operations, Arrays.stream(operations).mapToDouble(ops -> ops.chance).toArray(), 0);
+    }
+
+    static Workload fromSettings() {
+        String file = Settings.get("workload", null);
+        Workload workload = file == null ? defaults() : load(file);
+        boolean perOperation = Arrays.stream(workload.operations).anyMatch(ops -> Settings.get("rate." + ops.name(), null) != null);
+        if (!perOperation) {
+            return new Workload(workload.operations, workload.weights, Settings.getDouble("rate", 0), workload.keys).withVariants();
+        }
+        double[] rates = Arrays.stream(workload.operations).mapToDouble(ops -> Math.max(0, Settings.getDouble("rate." + ops.name(), 0))).toArray();
+        return new Workload(workload.operations, rates, Arrays.stream(rates).sum(), workload.keys).withVariants();
+    }
+
+    /**
+     * Replaces each operation with selected variants (<code>variants.OPERATION=a,b</code> or <code>all</code>) by one
+     * operation per variant, <code>OPERATION/a</code>, that share its weight and key distribution equally.
+     * So the variants are interleaved randomly in one run and each gets its own histogram.
+     * Variants defined in the workload file are all selected by default, built-in ones only if given.
+     */
+    private Workload withVariants() {
+        List<Operation> operations = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        List<KeyChooser> keys = new ArrayList<>();
+        boolean expanded = false;
+        for (int i = 0; i < this.operations.length; i++) {
+            Operation ops = this.operations[i];
+            Map<String, String> variants = ops.variants();
+            String spec = Settings.get("variants." + ops.name(), ops instanceof CypherOperation ? "all" : "").trim();
+            List<String> selected = spec.equals("all") ? new ArrayList<>(variants.keySet())
+                    : spec.isEmpty() ? Collections.emptyList() : Arrays.asList(spec.split("\\s*,\\s*"));
+            if (selected.isEmpty()) {
+                operations.add(ops);
+                weights.add(this.weights[i]);
+                keys.add(this.keys[i]);
+                continue;
+            }
+            expanded = true;
+            for (String variant : selected) {
+                String statement = variants.get(variant);
+                if (statement == null) {
+                    throw new IllegalArgumentException("Unknown variant " + variant + " of " + ops.name() + ", known are " + variants.keySet());
+                }
+                operations.add(ops.variant(variant, statement));
+                weights.add(this.weights[i] / selected.size());
+                keys.add(this.keys[i]);
+            }
+        }
+        if (!expanded) return this;
+        return new Workload(operations.toArray(new Operation[0]), weights.stream().mapToDouble(Double::doubleValue).toArray(),
+                rate, keys.toArray(new KeyChooser[0]));
+    }
+
+    static Workload load(String file) {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading workload " + file, e);
+        }
+        String[] names = properties.getProperty("operations", "").trim().split("\\s*,\\s*");
+        Operation[] operations = new Operation[names.length];
+        double[] weights = new double[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            String cypher = properties.getProperty(name + ".cypher");
+            if (cypher == null) {
+                LoadGenerator.Operations builtIn = LoadGenerator.Operations.valueOf(name);
+                operations[i] = builtIn;
+                weights[i] = Double.parseDouble(properties.getProperty(name + ".weight", String.valueOf(builtIn.chance)));
+            } else {
+                operations[i] = new CypherOperation(name, cypher, properties.getProperty(name + ".batch"),
+                        Boolean.parseBoolean(properties.getProperty(name + ".writes", "false")),
+                        Boolean.parseBoolean(properties.getProperty(name + ".ryow", "false")),
+                        "new".equals(properties.getProperty(name + ".user", "random")),
+                        parameters(properties, name + ".param."),
+                        parameters(properties, name + ".variant."));
+                weights[i] = Double.parseDouble(properties.getProperty(name + ".weight", "1"));
+            }
+        }
+        return new Workload(operations, weights, 0);
+    }
+
+    private static Map<String, String> parameters(Properties properties, String prefix) {
+        Map<String, String> parameters = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) parameters.put(key.substring(prefix.length()), properties.getProperty(key));
+        }
+        return parameters;
+    }
+
+    /**
+     * @return index of the next operation to run, chosen by weight in constant time
+     */
+    int next(ThreadLocalRandom random) {
+        return table.next(random);
+    }
+
+    String[] names() {
+        return Arrays.stream(operations).map(Operation::name).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,73 @@
+package neo4j.load.twitter;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sampling frequencies of the {@link AliasTable} and of the operation selection of a {@link Workload} file.
+ */
+public class AliasTableTest {
+    private static final int SAMPLES = 1_000_000;
+
+    @Test
+    public void frequenciesFollowTheWeights() {
+        assertFrequencies(new double[]{70, 12, 8, 7, 2, 1});
+    }
+
+    @Test
+    public void zeroWeightIsNeverChosen() {
+        long[] counts = assertFrequencies(new double[]{0, 3, 0, 1, 0});
+        assertEquals(0, counts[0]);
+        assertEquals(0, counts[2]);
+        assertEquals(0, counts[4]);
+    }
+
+    @Test
+    public void singleEntryIsAlwaysChosen() {
+        AliasTable table = new AliasTable(new double[]{0.5});
+        for (int i = 0; i < 1000; i++) assertEquals(0, table.next(ThreadLocalRandom.current()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeightIsRejected() {
+        new AliasTable(new double[]{1, -1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allZeroWeightsAreRejected() {
+        new AliasTable(new double[]{0, 0});
+    }
+
+    @Test
+    public void workloadFileSelectsByItsWeights() {
+        Workload workload = Workload.load("workload-example.properties");
+        assertArrayEquals(new String[]{"CREATE_USER", "TWEET", "READ_TWEETS", "FOLLOW_RECOMMENDATION", "USER_PROFILE", "LIKE"}, workload.names());
+        assertArrayEquals(new double[]{1, 12, 70, 7, 8, 2}, workload.weights, 0);
+        long[] counts = new long[workload.operations.length];
+        for (int i = 0; i < SAMPLES; i++) counts[workload.next(ThreadLocalRandom.current())]++;
+        assertCounts(workload.weights, counts);
+    }
+
+    private static long[] assertFrequencies(double[] weights) {
+        AliasTable table = new AliasTable(weights);
+        long[] counts = new long[weights.length];
+        for (int i = 0; i < SAMPLES; i++) counts[table.next(ThreadLocalRandom.current())]++;
+        assertCounts(weights, counts);
+        return counts;
+    }
+
+    // each count is within 5 standard deviations of its binomial expectation
+    private static void assertCounts(double[] weights, long[] counts) {
+        double total = 0;
+        for (double weight : weights) total += weight;
+        for (int i = 0; i < weights.length; i++) {
+            double p = weights[i] / total;
+            double expected = p * SAMPLES;
+            double sigma = Math.sqrt(SAMPLES * p * (1 - p));
+            assertEquals("count of entry " + i, expected, counts[i], 5 * sigma);
+        }
+    }
+}
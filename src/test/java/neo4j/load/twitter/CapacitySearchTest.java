@@ -0,0 +1,80 @@
+package neo4j.load.twitter;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Capacity and knee of synthetic throughput/p99 curves of a {@link CapacitySearch}.
+ */
+public class CapacitySearchTest {
+
+    @Test
+    public void kneeOfSaturatingThroughputIsWhereItFlattens() {
+        CapacitySearch search = search(1000);
+        for (int level = 100; level <= 1000; level += 100) {
+            double throughput = Math.min(level, 600);
+            search.add(step(level, throughput, level <= 600 ? 5 : 5 + (level - 600) * 0.5), quiet());
+        }
+        assertEquals(600, search.knee().level);
+    }
+
+    @Test
+    public void kneeOfQueueingCurve() {
+        // M/M/1 with a service rate of 100/s: the p99 of the response time is ln(100) / (100 - rate)
+        CapacitySearch search = search(1000);
+        for (int rate = 10; rate <= 95; rate += 5) {
+            search.add(step(rate, rate, TimeUnit.SECONDS.toMillis(1) * Math.log(100) / (100 - rate)), quiet());
+        }
+        assertEquals(80, search.knee().level);
+    }
+
+    @Test
+    public void noKneeOfShortOrFlatCurves() {
+        CapacitySearch search = search(1000);
+        search.add(step(100, 100, 5), quiet());
+        search.add(step(200, 200, 5), quiet());
+        assertNull(search.knee());
+        search.add(step(300, 300, 5), quiet());
+        assertNull(search.knee());
+    }
+
+    @Test
+    public void capacityIsHighestThroughputWithinTheSlo() {
+        CapacitySearch search = search(50);
+        assertTrue(search.add(step(100, 100, 10), quiet()));
+        assertTrue(search.add(step(200, 190, 40), quiet()));
+        assertFalse(search.add(step(300, 220, 80), quiet()));
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        search.report(new PrintStream(report, true));
+        assertTrue(report.toString(), report.toString().startsWith(String.format("Capacity: %.1f ops/s at rate 200 with p99", 190.0)));
+    }
+
+    @Test
+    public void errorRateIsOfAllExecutions() {
+        Histogram latencies = new Histogram(3);
+        latencies.recordValueWithCount(TimeUnit.MILLISECONDS.toNanos(5), 990);
+        assertEquals(1.0, new CapacitySearch.Step(100, 99, latencies, 10).errorRate, 1e-9);
+        assertEquals(100.0, new CapacitySearch.Step(100, 0, new Histogram(3), 10).errorRate, 1e-9);
+        assertEquals(0.0, new CapacitySearch.Step(100, 0, new Histogram(3), 0).errorRate, 1e-9);
+    }
+
+    private static CapacitySearch search(double maxP99) {
+        return new CapacitySearch("rate", 100, 100, 1000, 0, 0, maxP99, 0, 1, "capacity.csv");
+    }
+
+    private static CapacitySearch.Step step(int level, double throughput, double p99Millis) {
+        Histogram latencies = new Histogram(3);
+        latencies.recordValueWithCount((long) (p99Millis * TimeUnit.MILLISECONDS.toNanos(1)), 1000);
+        return new CapacitySearch.Step(level, throughput, latencies, 0);
+    }
+
+    private static PrintStream quiet() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+}
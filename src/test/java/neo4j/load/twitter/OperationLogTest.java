@@ -0,0 +1,155 @@
+package neo4j.load.twitter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of operations written to an {@link OperationLog} and read back by its reader.
+ */
+public class OperationLogTest {
+    private static final String[] OPERATIONS = {"TWEET", "READ_TWEETS", "USER_PROFILE"};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("operations", ".log");
+        System.setProperty("record", file.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("record");
+        file.delete();
+    }
+
+    @Test
+    public void entriesReadBackAsWritten() throws IOException {
+        UUID user = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("limit", 20L);
+        parameters.put("ratio", 0.5);
+        parameters.put("friends", Arrays.asList(other.toString(), "not a uuid"));
+        parameters.put("text", "caf\u00e9 \u2615");
+        parameters.put("private", true);
+        parameters.put("missing", null);
+
+        OperationLog.startRecording(OPERATIONS);
+        OperationLog log = OperationLog.recording();
+        long start = System.nanoTime();
+        log.record(0, false, start, user.getMostSignificantBits(), user.getLeastSignificantBits(), "a tweet");
+        log.record(2, true, start + 1000, user.getMostSignificantBits(), user.getLeastSignificantBits(), parameters);
+        log.record(1, false, start + 2000, other.getMostSignificantBits(), other.getLeastSignificantBits(), null);
+        OperationLog.stopRecording();
+
+        try (OperationLog.Reader reader = new OperationLog.Reader(file)) {
+            assertArrayEquals(OPERATIONS, reader.operations());
+            OperationLog.Entry tweet = reader.next();
+            assertEquals(0, tweet.operation);
+            assertEquals(0, tweet.flags);
+            assertEquals(user.toString(), tweet.name);
+            assertEquals(user.getMostSignificantBits() ^ user.getLeastSignificantBits(), tweet.hash);
+            assertEquals("a tweet", tweet.parameter);
+
+            OperationLog.Entry profile = reader.next();
+            assertEquals(2, profile.operation);
+            assertEquals(OperationLog.BOOKMARK, profile.flags);
+            assertEquals(1000, profile.intended - tweet.intended);
+            assertEquals(parameters, profile.parameter);
+
+            OperationLog.Entry read = reader.next();
+            assertEquals(1, read.operation);
+            assertEquals(other.toString(), read.name);
+            assertEquals(2000, read.intended - tweet.intended);
+            assertNull(read.parameter);
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void recordedRandomChoicesReplayTheSameWrites() throws IOException {
+        Users users = new Users();
+        users.addAll(Collections.singletonList(UUID.randomUUID().toString()));
+        List<String> friends = Arrays.asList("a", "b", "c");
+        LoadGenerator.Operations[] operations = {LoadGenerator.Operations.TWEET, LoadGenerator.Operations.FOLLOW_RECOMMENDATION};
+        List<Object> parameters = new ArrayList<>();
+
+        OperationLog.startRecording(new String[]{"TWEET", "FOLLOW_RECOMMENDATION"});
+        OperationLog log = OperationLog.recording();
+        for (int i = 0; i < 100; i++) {
+            Object parameter = operations[i % 2].parameter(users, 0, null);
+            parameters.add(parameter);
+            log.record(i % 2, false, System.nanoTime(), users.mostSignificantBits(0), users.leastSignificantBits(0), parameter);
+        }
+        OperationLog.stopRecording();
+
+        Set<String> followed = new HashSet<>();
+        try (OperationLog.Reader reader = new OperationLog.Reader(file)) {
+            for (int i = 0; i < 100; i++) {
+                OperationLog.Entry entry = reader.next();
+                if (i % 2 == 0) {
+                    assertEquals(parameters.get(i), entry.parameter);
+                    assertTrue(((String) entry.parameter).startsWith("A Tweet by " + users.name(0)));
+                } else {
+                    String friend = LoadGenerator.Operations.recommended((Long) parameters.get(i), friends);
+                    assertEquals(friend, LoadGenerator.Operations.recommended((Long) entry.parameter, friends));
+                    followed.add(friend);
+                }
+            }
+        }
+        // both decisions occur in 50 recommendations
+        assertTrue(followed.contains(null));
+        assertTrue(followed.size() > 1);
+    }
+
+    @Test
+    public void recordsSpanMappedSegments() throws IOException {
+        char[] chars = new char[1 << 20];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        int count = 70;
+
+        OperationLog.startRecording(OPERATIONS);
+        OperationLog log = OperationLog.recording();
+        for (int i = 0; i < count; i++) log.record(i % OPERATIONS.length, false, System.nanoTime(), i, i, large + i);
+        OperationLog.stopRecording();
+        assertTrue(file.length() > 64 << 20);
+
+        try (OperationLog.Reader reader = new OperationLog.Reader(file)) {
+            for (int i = 0; i < count; i++) {
+                OperationLog.Entry entry = reader.next();
+                assertEquals(i % OPERATIONS.length, entry.operation);
+                assertEquals(new UUID(i, i).toString(), entry.name);
+                assertEquals(large + i, entry.parameter);
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void logCutOffInARecordEndsBeforeIt() throws IOException {
+        OperationLog.startRecording(OPERATIONS);
+        OperationLog log = OperationLog.recording();
+        for (int i = 0; i < 3; i++) log.record(i, false, System.nanoTime(), i, i, (long) i);
+        OperationLog.stopRecording();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (OperationLog.Reader reader = new OperationLog.Reader(file)) {
+            assertEquals(0L, reader.next().parameter);
+            assertEquals(1L, reader.next().parameter);
+            assertNull(reader.next());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package neo4j.load.twitter;
+
+import org.junit.Test;
+import org.neo4j.driver.v1.exceptions.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mapping of driver exceptions and their status codes to the {@link Outcome} of an operation.
+ */
+public class OutcomeTest {
+
+    @Test
+    public void deadlockIsRetried() {
+        Exception e = new TransientException("Neo.TransientError.Transaction.DeadlockDetected", "deadlock");
+        assertEquals(Outcome.DEADLOCK, Outcome.of(e));
+        assertTrue(Outcome.DEADLOCK.retryable());
+        assertFalse(Outcome.expiresSession(e));
+    }
+
+    @Test
+    public void otherTransientErrorsAreRetried() {
+        for (String code : new String[]{"Neo.TransientError.Transaction.LockClientStopped",
+                "Neo.TransientError.General.DatabaseUnavailable", "Neo.TransientError.Transaction.Terminated"}) {
+            Exception e = new TransientException(code, "transient");
+            assertEquals(code, Outcome.TRANSIENT, Outcome.of(e));
+            assertFalse(code, Outcome.expiresSession(e));
+        }
+        assertTrue(Outcome.TRANSIENT.retryable());
+    }
+
+    @Test
+    public void leaderSwitchExpiresTheSessionAndIsRetried() {
+        for (String code : new String[]{"Neo.ClientError.Cluster.NotALeader", "Neo.ClientError.General.ForbiddenOnReadOnlyDatabase"}) {
+            Exception e = new ClientException(code, "no leader");
+            assertEquals(code, Outcome.TRANSIENT, Outcome.of(e));
+            assertTrue(code, Outcome.expiresSession(e));
+        }
+    }
+
+    @Test
+    public void lostConnectionExpiresTheSessionAndIsRetried() {
+        for (Exception e : new Exception[]{new SessionExpiredException("expired"), new ServiceUnavailableException("gone")}) {
+            assertEquals(Outcome.TRANSIENT, Outcome.of(e));
+            assertTrue(Outcome.expiresSession(e));
+        }
+    }
+
+    @Test
+    public void clientAndDatabaseErrorsAreFatal() {
+        Exception[] errors = {
+                new ClientException("Neo.ClientError.Statement.SyntaxError", "syntax"),
+                new ClientException("Neo.ClientError.Schema.ConstraintValidationFailed", "constraint"),
+                new DatabaseException("Neo.DatabaseError.General.UnknownError", "unknown"),
+                new IllegalStateException("not from the driver")};
+        for (Exception e : errors) {
+            assertEquals(e.getMessage(), Outcome.FATAL, Outcome.of(e));
+            assertFalse(e.getMessage(), Outcome.expiresSession(e));
+        }
+        assertFalse(Outcome.FATAL.retryable());
+        assertFalse(Outcome.SUCCESS.retryable());
+    }
+}
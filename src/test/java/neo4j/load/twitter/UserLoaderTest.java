@@ -0,0 +1,60 @@
+package neo4j.load.twitter;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Paged loading of the user names from an embedded database: processes loading the same database must get
+ * the same id for each name, however their page threads interleave.
+ */
+public class UserLoaderTest {
+    private static final int USERS = 500;
+
+    private static Driver driver;
+
+    @BeforeClass
+    public static void setUp() {
+        driver = EmbeddedDriver.open("embedded:");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) names.add(UUID.randomUUID().toString());
+        try (Session session = driver.session()) {
+            // other nodes between the users leave gaps in the node ids of the users
+            session.run("UNWIND {names} as name CREATE (:User {name:name}) CREATE (:Tweet {text:name})", parameters("names", names)).consume();
+            session.run("CREATE (:User {name:'not a uuid'})").consume();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    public void loadsGiveTheSameIdsInNodeIdOrder() throws InterruptedException {
+        Users sequential = load(1, 1000);
+        assertEquals(USERS, sequential.size());
+        for (int run = 0; run < 3; run++) {
+            Users parallel = load(4, 7);
+            assertEquals(USERS, parallel.size());
+            for (int user = 0; user < USERS; user++) {
+                assertEquals("id " + user + " in run " + run, sequential.name(user), parallel.name(user));
+            }
+        }
+    }
+
+    private static Users load(int threads, int pageSize) throws InterruptedException {
+        Users users = new Users();
+        new UserLoader(driver, null, threads, pageSize).load(users);
+        return users;
+    }
+}
@@ -0,0 +1,118 @@
+package neo4j.load.twitter;
+
+import org.junit.Test;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent appends to the {@link Users} registry: every id below the size is fully written while others append,
+ * and no append is lost.
+ */
+public class UsersTest {
+    private static final int THREADS = 4;
+    private static final int APPENDS = 5_000;
+    private static final int BULK = 500;
+
+    @Test
+    public void concurrentAppendsKeepSizeAndNames() throws InterruptedException {
+        Users users = new Users();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            boolean bulk = t % 2 == 0;
+            writers.add(thread(failure, () -> {
+                start.await();
+                if (bulk) {
+                    for (int i = 0; i < APPENDS; i += BULK) users.addAll(bits(BULK), BULK);
+                } else {
+                    for (int i = 0; i < APPENDS; i++) users.newUser();
+                }
+            }));
+        }
+        Thread reader = thread(failure, () -> {
+            start.await();
+            while (writers.stream().anyMatch(Thread::isAlive)) {
+                int size = users.size();
+                for (int user = Math.max(0, size - 2 * BULK); user < size; user++) {
+                    if ((users.mostSignificantBits(user) & 0xF000L) != 0x4000L) fail("user " + user + " below size " + size + " is not written");
+                }
+            }
+        });
+        start.countDown();
+        for (Thread writer : writers) writer.join();
+        reader.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        assertEquals(THREADS * APPENDS, users.size());
+        Set<String> names = new HashSet<>();
+        for (int user = 0; user < users.size(); user++) {
+            assertTrue("duplicate name of user " + user, names.add(users.name(user)));
+        }
+    }
+
+    @Test
+    public void addAllFromBufferCrossesChunks() {
+        Users users = new Users();
+        users.newUser();
+        int count = 150_000;
+        long[] bits = new long[count * 2];
+        for (int i = 0; i < count; i++) {
+            bits[i * 2] = 0x4000L | i;
+            bits[i * 2 + 1] = 0x8000L << 48 | i;
+        }
+        assertEquals(count, users.addAll(LongBuffer.wrap(bits), count));
+        assertEquals(count + 1, users.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(0x4000L | i, users.mostSignificantBits(i + 1));
+            assertEquals(0x8000L << 48 | i, users.leastSignificantBits(i + 1));
+        }
+    }
+
+    @Test
+    public void emptyRegistryHasNoRandomUsers() {
+        Users users = new Users();
+        assertTrue(users.randomUsers(10).isEmpty());
+        try {
+            users.randomUser();
+            fail("chose a user of an empty registry");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static LongBuffer bits(int count) {
+        LongBuffer bits = LongBuffer.allocate(count * 2);
+        for (int i = 0; i < count; i++) {
+            UUID uuid = UUID.randomUUID();
+            bits.put(uuid.getMostSignificantBits()).put(uuid.getLeastSignificantBits());
+        }
+        bits.flip();
+        return bits;
+    }
+
+    interface Body {
+        void run() throws Exception;
+    }
+
+    private static Thread thread(AtomicReference<Throwable> failure, Body body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}